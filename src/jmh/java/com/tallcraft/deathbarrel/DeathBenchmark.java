@@ -0,0 +1,66 @@
+package com.tallcraft.deathbarrel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.Location;
+import org.bukkit.inventory.ItemStack;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of storing the drops of a death in new barrels: finding free space,
+ * placing the barrels and filling them. Every death happens at a new spot,
+ * the plugin and world are recreated for each iteration so they don't grow
+ * without bounds.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeathBenchmark {
+  // A few items, and a full inventory with armor and offhand, which needs two barrels.
+  @Param({"5", "41"})
+  public int dropCount;
+
+  private PluginFixture fixture;
+  private List<ItemStack> drops;
+  private int deathX;
+
+  @Setup(Level.Iteration)
+  public void setUp() throws Exception {
+    fixture = new PluginFixture(Collections.emptyMap());
+    drops = PluginFixture.drops(dropCount);
+    deathX = 0;
+  }
+
+  @TearDown(Level.Iteration)
+  public void tearDown() throws Exception {
+    fixture.close();
+  }
+
+  @Benchmark
+  public int createDeathBarrels() {
+    // Two blocks apart, so the barrels of one death don't block the next.
+    deathX += 2;
+    List<ItemStack> eventDrops = new ArrayList<>(drops);
+    fixture.die(fixture.player,
+        new Location(fixture.world.getWorld(), deathX, FakeWorld.GROUND_Y, 0), eventDrops);
+    return eventDrops.size();
+  }
+}
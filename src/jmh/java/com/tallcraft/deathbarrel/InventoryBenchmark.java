@@ -0,0 +1,126 @@
+package com.tallcraft.deathbarrel;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.block.Hopper;
+import org.bukkit.event.inventory.ClickType;
+import org.bukkit.event.inventory.InventoryAction;
+import org.bukkit.event.inventory.InventoryClickEvent;
+import org.bukkit.event.inventory.InventoryMoveItemEvent;
+import org.bukkit.event.inventory.InventoryType;
+import org.bukkit.event.inventory.InventoryType.SlotType;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of the inventory handlers, which run for every hopper transfer and
+ * inventory click on the server. Transfers between hoppers and ordinary
+ * barrels are by far the most common and should be rejected cheaply.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InventoryBenchmark {
+  private PluginFixture fixture;
+  private InventoryMoveItemEvent hopperToHopper;
+  private InventoryMoveItemEvent hopperToBarrel;
+  private InventoryMoveItemEvent hopperToDeathBarrel;
+  private InventoryMoveItemEvent deathBarrelToHopper;
+  private InventoryClickEvent clickChest;
+  private InventoryClickEvent takeFromDeathBarrel;
+  private InventoryClickEvent placeIntoDeathBarrel;
+
+  @Setup
+  public void setUp() throws Exception {
+    fixture = new PluginFixture(Collections.emptyMap());
+    Inventory hopper = hopper(20, 20);
+    Inventory otherHopper = hopper(21, 20);
+    Inventory barrel = fixture.placeBarrel(10, FakeWorld.GROUND_Y, 10).getInventory();
+    Inventory deathBarrel = fixture.createDeathBarrel(0, 0).getInventory();
+    Inventory chest = FakeInventory.create(InventoryType.CHEST, 27, null, null);
+    ItemStack item = new ItemStack(Material.COBBLESTONE);
+
+    hopperToHopper = new InventoryMoveItemEvent(hopper, item, otherHopper, true);
+    hopperToBarrel = new InventoryMoveItemEvent(hopper, item, barrel, true);
+    hopperToDeathBarrel = new InventoryMoveItemEvent(hopper, item, deathBarrel, true);
+    deathBarrelToHopper = new InventoryMoveItemEvent(deathBarrel, item, hopper, false);
+
+    // Slot 30 is in the player's inventory, below the 27 slots of the chest.
+    clickChest = new InventoryClickEvent(fixture.player.view(chest), SlotType.CONTAINER, 30,
+        ClickType.LEFT, InventoryAction.PICKUP_ALL);
+    takeFromDeathBarrel = new InventoryClickEvent(fixture.player.view(deathBarrel),
+        SlotType.CONTAINER, 0, ClickType.LEFT, InventoryAction.PICKUP_ALL);
+    placeIntoDeathBarrel = new InventoryClickEvent(fixture.player.view(deathBarrel),
+        SlotType.CONTAINER, 26, ClickType.LEFT, InventoryAction.PLACE_ALL);
+  }
+
+  private Inventory hopper(int x, int z) {
+    Location location = new Location(fixture.world.getWorld(), x, FakeWorld.GROUND_Y, z);
+    return FakeInventory.create(InventoryType.HOPPER, InventoryType.HOPPER.getDefaultSize(),
+        Fakes.proxy(Hopper.class), location);
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    fixture.close();
+  }
+
+  @Benchmark
+  public boolean moveItemHopperToHopper() {
+    fixture.plugin.onInventoryMoveItem(hopperToHopper);
+    return hopperToHopper.isCancelled();
+  }
+
+  @Benchmark
+  public boolean moveItemHopperToBarrel() {
+    fixture.plugin.onInventoryMoveItem(hopperToBarrel);
+    return hopperToBarrel.isCancelled();
+  }
+
+  @Benchmark
+  public boolean moveItemHopperToDeathBarrel() {
+    fixture.plugin.onInventoryMoveItem(hopperToDeathBarrel);
+    return hopperToDeathBarrel.isCancelled();
+  }
+
+  @Benchmark
+  public boolean moveItemDeathBarrelToHopper() {
+    fixture.plugin.onInventoryMoveItem(deathBarrelToHopper);
+    return deathBarrelToHopper.isCancelled();
+  }
+
+  @Benchmark
+  public boolean clickChest() {
+    fixture.plugin.onInventoryClickEvent(clickChest);
+    return clickChest.isCancelled();
+  }
+
+  @Benchmark
+  public boolean clickTakeFromDeathBarrel() {
+    fixture.plugin.onInventoryClickEvent(takeFromDeathBarrel);
+    return takeFromDeathBarrel.isCancelled();
+  }
+
+  @Benchmark
+  public boolean clickPlaceIntoDeathBarrel() {
+    fixture.plugin.onInventoryClickEvent(placeIntoDeathBarrel);
+    return placeIntoDeathBarrel.isCancelled();
+  }
+}
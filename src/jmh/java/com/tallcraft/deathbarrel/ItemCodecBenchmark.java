@@ -0,0 +1,84 @@
+package com.tallcraft.deathbarrel;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.inventory.ItemStack;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of storing the items of a death with the item codec compared to
+ * Bukkit's YAML serialization, which the codec replaces. The items are
+ * stacks of blocks and enchanted, named tools with lore, see
+ * {@link ItemCodecStackTest#death()}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ItemCodecBenchmark {
+  private static final Logger LOGGER = Logger.getLogger("ItemCodecBenchmark");
+  private static final String ITEMS_KEY = "items";
+
+  private List<ItemStack> items;
+  private byte[] encoded;
+  private byte[] encodedCompressed;
+  private String yaml;
+
+  @Setup
+  public void setUp() {
+    FakeServer.get();
+    items = ItemCodecStackTest.death();
+    encoded = ItemCodec.encode(items, false);
+    encodedCompressed = ItemCodec.encode(items, true);
+    yaml = encodeYaml();
+  }
+
+  @Benchmark
+  public byte[] encodeCodec() {
+    return ItemCodec.encode(items, false);
+  }
+
+  @Benchmark
+  public byte[] encodeCodecCompressed() {
+    return ItemCodec.encode(items, true);
+  }
+
+  @Benchmark
+  public String encodeYaml() {
+    YamlConfiguration config = new YamlConfiguration();
+    config.set(ITEMS_KEY, items);
+    return config.saveToString();
+  }
+
+  @Benchmark
+  public List<ItemStack> decodeCodec() throws Exception {
+    return ItemCodec.decode(encoded, LOGGER);
+  }
+
+  @Benchmark
+  public List<ItemStack> decodeCodecCompressed() throws Exception {
+    return ItemCodec.decode(encodedCompressed, LOGGER);
+  }
+
+  @Benchmark
+  public List<?> decodeYaml() throws InvalidConfigurationException {
+    YamlConfiguration config = new YamlConfiguration();
+    config.loadFromString(yaml);
+    return config.getList(ITEMS_KEY);
+  }
+}
@@ -0,0 +1,124 @@
+package com.tallcraft.deathbarrel;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.Location;
+import org.bukkit.block.Block;
+import org.bukkit.entity.Entity;
+import org.bukkit.event.entity.EntityExplodeEvent;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of the explosion and chunk load handlers. Explosions check every block
+ * they destroy, chunk loads look up the barrels of the chunk in the index and,
+ * while the scan for unindexed barrels is enabled, read the scan marker of the
+ * chunk. Chunks are only scanned on their first load.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WorldBenchmark {
+  // Explosions destroy a cube of blocks with this radius.
+  private static final int EXPLOSION_RADIUS = 2;
+  private static final int BARRELS_PER_CHUNK = 4;
+
+  @Param({"false", "true"})
+  public boolean legacyScan;
+
+  private PluginFixture fixture;
+  private Entity tnt;
+  private Location explosionNearBarrels;
+  private List<Block> blocksNearBarrels;
+  private Location explosionElsewhere;
+  private List<Block> blocksElsewhere;
+  private ChunkLoadEvent chunkWithBarrels;
+  private ChunkLoadEvent chunkWithoutBarrels;
+
+  @Setup
+  public void setUp() throws Exception {
+    Map<String, Object> config = new HashMap<>();
+    config.put("scanChunksForUnindexedBarrels", legacyScan);
+    config.put("sweepChunksPerTick", 0);
+    // Chunk loads only look up indexed barrels if they can expire.
+    config.put("removeBarrelsAfterSeconds", 3600);
+    fixture = new PluginFixture(config);
+
+    for (int i = 0; i < BARRELS_PER_CHUNK; i++) {
+      fixture.createDeathBarrel(2 + 3 * i, 2);
+    }
+    fixture.placeBarrel(3, FakeWorld.GROUND_Y, 2);
+
+    tnt = Fakes.proxy(Entity.class);
+    explosionNearBarrels = new Location(fixture.world.getWorld(), 3, FakeWorld.GROUND_Y, 2);
+    blocksNearBarrels = cube(explosionNearBarrels);
+    explosionElsewhere = new Location(fixture.world.getWorld(), 200, FakeWorld.GROUND_Y, 200);
+    blocksElsewhere = cube(explosionElsewhere);
+
+    chunkWithBarrels = new ChunkLoadEvent(fixture.world.getChunk(0, 0), false);
+    chunkWithoutBarrels = new ChunkLoadEvent(fixture.world.getChunk(20, 20), false);
+  }
+
+  private List<Block> cube(Location center) {
+    List<Block> blocks = new ArrayList<>();
+    for (int dx = -EXPLOSION_RADIUS; dx <= EXPLOSION_RADIUS; dx++) {
+      for (int dy = -EXPLOSION_RADIUS; dy <= EXPLOSION_RADIUS; dy++) {
+        for (int dz = -EXPLOSION_RADIUS; dz <= EXPLOSION_RADIUS; dz++) {
+          blocks.add(fixture.world.getBlock(center.getBlockX() + dx, center.getBlockY() + dy,
+              center.getBlockZ() + dz));
+        }
+      }
+    }
+    return blocks;
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    fixture.close();
+  }
+
+  @Benchmark
+  public int explodeNearBarrels() {
+    // The handler removes barrels from the block list, so each call gets a copy.
+    EntityExplodeEvent event = new EntityExplodeEvent(tnt, explosionNearBarrels,
+        new ArrayList<>(blocksNearBarrels), 1);
+    fixture.plugin.onExplode(event);
+    return event.blockList().size();
+  }
+
+  @Benchmark
+  public int explodeElsewhere() {
+    EntityExplodeEvent event = new EntityExplodeEvent(tnt, explosionElsewhere,
+        new ArrayList<>(blocksElsewhere), 1);
+    fixture.plugin.onExplode(event);
+    return event.blockList().size();
+  }
+
+  @Benchmark
+  public void chunkLoadWithBarrels() {
+    fixture.plugin.onChunkLoad(chunkWithBarrels);
+  }
+
+  @Benchmark
+  public void chunkLoadWithoutBarrels() {
+    fixture.plugin.onChunkLoad(chunkWithoutBarrels);
+  }
+}
@@ -2,51 +2,383 @@ package com.tallcraft.deathbarrel;
 
 import io.papermc.lib.PaperLib;
 
-import org.bukkit.Chunk;
-import org.bukkit.Location;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bukkit.World;
 import org.bukkit.block.Block;
-import org.bukkit.scheduler.BukkitRunnable;
 
+/**
+ * Single expiry scheduler for all death barrels. Runs once per tick and removes
+ * the barrels whose deadline has passed. Barrels are queued by creation time,
+ * so each tick only looks at the head of the queue.
+ *
+ * <p>Expired barrels are grouped by chunk, so any number of barrels in one
+ * chunk cost one chunk load. The number of concurrent chunk loads and the time
+ * spent removing barrels per tick are limited to avoid lag spikes when many
+ * barrels expire at once.
+ *
+ * <p>Barrels can also be purged regardless of their age, e.g. by staff
+ * commands. Purges go through the same chunk batching and limits, a summary
+ * is logged once all pending purges are done.
+ *
+ * <p>On Folia the task runs on the global region thread and hands each chunk
+ * batch to the thread owning the chunk. Barrels may be scheduled from any
+ * region thread.
+ */
+public class BarrelCleanupTask implements Runnable {
+  private final DeathBarrel plugin;
+  private final BarrelIndex index;
+  private final long maxAgeSeconds;
+  private final int maxChunkLoads;
+  private final long maxTickNanos;
+  private final PriorityQueue<IndexedBarrel> queue =
+      new PriorityQueue<>(Comparator.comparingLong(IndexedBarrel::getCreatedAt));
+  // Barrels to remove regardless of their age.
+  private final Set<BarrelPosition> purging = new HashSet<>();
+  // Purged barrels not processed yet and barrels removed by purges so far.
+  // Updated by region threads on Folia.
+  private final AtomicInteger purgesPending = new AtomicInteger();
+  private final AtomicInteger purgesRemoved = new AtomicInteger();
 
-public class BarrelCleanupTask extends BukkitRunnable {
-  private DeathBarrel plugin;
-  private Location location;
-  private long maxAgeSeconds;
-  private Chunk chunk;
+  // World id => chunk key => batch, for all batches not processed yet.
+  private final Map<UUID, Map<Long, ChunkBatch>> batches = new HashMap<>();
+  // Batches whose chunk still has to be loaded.
+  private final Deque<ChunkBatch> waiting = new ArrayDeque<>();
+  // Batches whose chunk is loaded and which can be processed on the main thread.
+  private final Deque<ChunkBatch> ready = new ArrayDeque<>();
+  private int loadsInFlight = 0;
+  private TaskScheduler.Task task;
 
-  BarrelCleanupTask(DeathBarrel plugin, Location location, long maxAgeSeconds) {
+  /**
+   * Create the cleanup task.
+   *
+   * @param plugin        - Plugin instance.
+   * @param index         - Barrel index to rebuild the queue from.
+   * @param maxAgeSeconds - Time after which barrels expire. 0 or less
+   *                      disables expiry, only purges are processed.
+   * @param maxChunkLoads - Maximum number of concurrent async chunk loads.
+   * @param maxTickMillis - Maximum main thread time to spend removing barrels
+   *                      per tick. One barrel is always removed.
+   */
+  BarrelCleanupTask(DeathBarrel plugin, BarrelIndex index, long maxAgeSeconds, int maxChunkLoads,
+                    double maxTickMillis) {
     this.plugin = plugin;
-    this.location = location;
+    this.index = index;
     this.maxAgeSeconds = maxAgeSeconds;
+    this.maxChunkLoads = Math.max(1, maxChunkLoads);
+    this.maxTickNanos = (long) (maxTickMillis * 1_000_000);
+  }
+
+  /**
+   * Queue a barrel for removal once it has expired.
+   *
+   * @param barrel - Barrel to schedule. Barrels without a creation time are
+   *               ignored.
+   */
+  synchronized void schedule(IndexedBarrel barrel) {
+    if (maxAgeSeconds <= 0 || barrel.getCreatedAt() < 0) {
+      return;
+    }
+    queue.add(barrel);
   }
 
-  BarrelCleanupTask(DeathBarrel plugin, Location location, long maxAgeSeconds, Chunk chunk) {
-    this(plugin, location, maxAgeSeconds);
-    this.chunk = chunk;
+  /**
+   * Rebuild the queue from the barrel index, e.g. after a restart.
+   */
+  synchronized void rebuild() {
+    queue.clear();
+    for (IndexedBarrel barrel : index.getAll()) {
+      schedule(barrel);
+    }
+  }
+
+  /**
+   * Remove barrels regardless of their age. Their chunks are loaded and the
+   * barrels removed over the following ticks.
+   *
+   * @param positions - Positions of the barrels to remove.
+   */
+  synchronized void purge(Collection<BarrelPosition> positions) {
+    for (BarrelPosition position : positions) {
+      if (purging.add(position)) {
+        purgesPending.incrementAndGet();
+        addToBatch(position);
+      }
+    }
+  }
+
+  /**
+   * Take over the purges another task has not processed yet, e.g. when the
+   * task is replaced on reload. Purges the other task already handed to
+   * region threads on Folia finish there.
+   *
+   * @param previous - Task to take the purges from. It should be cancelled.
+   */
+  void takePurges(BarrelCleanupTask previous) {
+    List<BarrelPosition> positions;
+    int removed = 0;
+    synchronized (previous) {
+      positions = new ArrayList<>(previous.purging);
+      previous.purging.clear();
+      // Carry the count over for the summary, unless the other task still
+      // has purges to log it for.
+      if (previous.purgesPending.addAndGet(-positions.size()) == 0) {
+        removed = previous.purgesRemoved.getAndSet(0);
+      }
+    }
+    purgesRemoved.addAndGet(removed);
+    purge(positions);
+  }
+
+  synchronized int getPendingCount() {
+    return queue.size() + purgesPending.get();
+  }
+
+  /**
+   * Start running the task every tick.
+   */
+  void start() {
+    task = plugin.getTaskScheduler().runTimer(this, 1, 1);
+  }
+
+  void cancel() {
+    if (task != null) {
+      task.cancel();
+      task = null;
+    }
   }
 
   @Override
   public void run() {
+    long start = System.nanoTime();
+    try {
+      tick();
+    } finally {
+      plugin.getStats().record(Stats.Handler.CLEANUP_TASK, start);
+    }
+  }
+
+  private synchronized void tick() {
+    long now = Instant.now().getEpochSecond();
+
+    while (!queue.isEmpty() && queue.peek().getCreatedAt() + maxAgeSeconds <= now) {
+      IndexedBarrel barrel = queue.poll();
+
+      // Entries are not removed from the queue when a barrel goes away early
+      // (emptied, broken). Skip them if they are no longer indexed.
+      if (index.get(barrel.getPosition()) != barrel) {
+        continue;
+      }
+      addToBatch(barrel.getPosition());
+    }
 
-    // If we have the chunk we can directly check the barrel and remove it if it has expired.
-    if (this.chunk != null) {
-      Block block = chunk.getWorld().getBlockAt(this.location.getBlockX(),
-          this.location.getBlockY(),
-          this.location.getBlockZ());
-      this.plugin.cleanupBarrelIfExpired(block, this.maxAgeSeconds);
+    loadChunks();
+    processReadyBatches();
+  }
+
+  private void addToBatch(BarrelPosition position) {
+    Map<Long, ChunkBatch> worldBatches = batches.computeIfAbsent(position.getWorldId(),
+        k -> new HashMap<>());
+    ChunkBatch batch = worldBatches.get(position.getChunkKey());
+    if (batch == null) {
+      batch = new ChunkBatch(position.getWorldId(), position.getChunkX(), position.getChunkZ());
+      worldBatches.put(position.getChunkKey(), batch);
+      waiting.add(batch);
+    }
+    batch.positions.add(position);
+  }
+
+  private void removeBatch(ChunkBatch batch) {
+    Map<Long, ChunkBatch> worldBatches = batches.get(batch.worldId);
+    if (worldBatches == null) {
       return;
     }
+    worldBatches.remove(Util.chunkKey(batch.chunkX, batch.chunkZ));
+    if (worldBatches.isEmpty()) {
+      batches.remove(batch.worldId);
+    }
+  }
+
+  /**
+   * Drop a batch that can't be processed. Pending purges in it are given up.
+   */
+  private void discardBatch(ChunkBatch batch) {
+    int discarded = 0;
+    for (BarrelPosition position : batch.positions) {
+      if (purging.remove(position)) {
+        discarded++;
+      }
+    }
+    if (discarded > 0) {
+      onPurgesDone(discarded);
+    }
+    removeBatch(batch);
+  }
+
+  private void purgeBarrel(Block block) {
+    if (plugin.purgeBarrel(block)) {
+      purgesRemoved.incrementAndGet();
+    }
+    onPurgesDone(1);
+  }
 
-    // If we don't have the chunk, get it async.
-    PaperLib.getChunkAtAsync(this.location).thenAccept(chunk -> {
-      if (chunk == null) {
+  /**
+   * Log a summary once the last pending purge is done.
+   *
+   * @param count - Number of purged barrels processed or given up.
+   */
+  private void onPurgesDone(int count) {
+    if (purgesPending.addAndGet(-count) == 0) {
+      plugin.getLogger().info("Purged " + purgesRemoved.getAndSet(0) + " death barrels.");
+    }
+  }
+
+  /**
+   * Start async loads for waiting batches, up to the concurrent load limit.
+   * Batches in already loaded chunks are ready right away.
+   */
+  private void loadChunks() {
+    while (!waiting.isEmpty()) {
+      ChunkBatch batch = waiting.peek();
+      World world = plugin.getServer().getWorld(batch.worldId);
+      if (world == null) {
+        // World is not loaded. The barrels will be cleaned up on chunk load.
+        waiting.poll();
+        discardBatch(batch);
+        continue;
+      }
+
+      if (world.isChunkLoaded(batch.chunkX, batch.chunkZ)) {
+        waiting.poll();
+        ready.add(batch);
+        continue;
+      }
+
+      if (loadsInFlight >= maxChunkLoads) {
         return;
       }
+      waiting.poll();
+      loadsInFlight++;
 
-      // Now that we have the chunk loaded we can remove the barrel. We need to create a separate
-      // synchronous task for that, since we can't modify the chunk async.
-      new BarrelCleanupTask(this.plugin, this.location, this.maxAgeSeconds, chunk)
-        .runTask(this.plugin);
+      PaperLib.getChunkAtAsync(world, batch.chunkX, batch.chunkZ, false)
+          .whenComplete((chunk, error) -> {
+            if (!plugin.isEnabled()) {
+              return;
+            }
+            // We can't modify the chunk async, so hand the batch back to the task's thread.
+            plugin.getTaskScheduler().run(() -> onChunkLoaded(batch, chunk != null));
+          });
+    }
+  }
+
+  private synchronized void onChunkLoaded(ChunkBatch batch, boolean loaded) {
+    loadsInFlight--;
+    if (!loaded) {
+      discardBatch(batch);
+      return;
+    }
+    ready.add(batch);
+  }
+
+  /**
+   * Remove barrels of loaded batches until the tick budget is used up. At
+   * least one barrel is processed per tick, so cleanup keeps going with a
+   * budget of 0. Unfinished batches are resumed on the next tick.
+   */
+  private void processReadyBatches() {
+    long deadline = System.nanoTime() + maxTickNanos;
+    boolean processed = false;
+
+    while (!ready.isEmpty()) {
+      ChunkBatch batch = ready.peek();
+      World world = plugin.getServer().getWorld(batch.worldId);
+      if (world == null) {
+        ready.poll();
+        discardBatch(batch);
+        continue;
+      }
+      if (!world.isChunkLoaded(batch.chunkX, batch.chunkZ)) {
+        // Chunk got unloaded while waiting, load it again.
+        ready.poll();
+        waiting.add(batch);
+        continue;
+      }
+
+      if (plugin.getTaskScheduler().isFolia()) {
+        // Barrels can only be modified on the thread owning their region.
+        ready.poll();
+        removeBatch(batch);
+        dispatchBatch(world, batch);
+        continue;
+      }
+
+      while (batch.next < batch.positions.size()) {
+        if (processed && System.nanoTime() >= deadline) {
+          return;
+        }
+        BarrelPosition position = batch.positions.get(batch.next++);
+        if (purging.remove(position)) {
+          purgeBarrel(position.getBlock(world));
+        } else {
+          plugin.cleanupBarrelIfExpired(position.getBlock(world), maxAgeSeconds);
+        }
+        processed = true;
+      }
+      ready.poll();
+      removeBatch(batch);
+    }
+  }
+
+  /**
+   * Remove the barrels of a batch on the thread owning its chunk.
+   */
+  private void dispatchBatch(World world, ChunkBatch batch) {
+    List<BarrelPosition> positions = new ArrayList<>(batch.positions);
+    Set<BarrelPosition> purged = new HashSet<>();
+    for (BarrelPosition position : positions) {
+      if (purging.remove(position)) {
+        purged.add(position);
+      }
+    }
+    plugin.getTaskScheduler().runAt(world, batch.chunkX, batch.chunkZ, () -> {
+      for (BarrelPosition position : positions) {
+        if (purged.contains(position)) {
+          purgeBarrel(position.getBlock(world));
+        } else {
+          plugin.cleanupBarrelIfExpired(position.getBlock(world), maxAgeSeconds);
+        }
+      }
     });
   }
+
+  /**
+   * Expired barrels within one chunk.
+   */
+  private static final class ChunkBatch {
+    private final UUID worldId;
+    private final int chunkX;
+    private final int chunkZ;
+    private final List<BarrelPosition> positions = new ArrayList<>();
+    // Index of the next position to process.
+    private int next = 0;
+
+    private ChunkBatch(UUID worldId, int chunkX, int chunkZ) {
+      this.worldId = worldId;
+      this.chunkX = chunkX;
+      this.chunkZ = chunkZ;
+    }
+  }
 }
@@ -0,0 +1,294 @@
+package com.tallcraft.deathbarrel;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+/**
+ * Persistent index of all live death barrels, grouped by world and chunk.
+ * Allows looking up barrels without scanning tile entities. Thread safe, on
+ * Folia it is shared by all region threads. Lookups by position don't lock,
+ * they run for every hopper transfer, click and exploded barrel.
+ */
+public class BarrelIndex {
+  private static final String BARRELS_KEY = "barrels";
+  private static final String SCAN_GENERATION_KEY = "scanGeneration";
+  private static final String CLEAN_SHUTDOWN_KEY = "cleanShutdown";
+
+  private final DeathBarrel plugin;
+  private final File file;
+
+  private final Map<BarrelPosition, IndexedBarrel> barrels = new ConcurrentHashMap<>();
+  // World id => chunk key => barrels in chunk.
+  private final Map<UUID, Map<Long, Map<BarrelPosition, IndexedBarrel>>> chunks = new HashMap<>();
+
+  // Chunks record the generation they have been scanned for barrels missing
+  // from the index. A new one is picked whenever the index may have lost
+  // barrels, which makes every chunk be scanned again once.
+  private volatile int scanGeneration = 0;
+  private boolean dirty = false;
+  // Snapshots are numbered, so an older one written late by another thread
+  // does not replace a newer one. The last written number is guarded by the
+  // write lock.
+  private long snapshotNumber = 0;
+  private long writtenSnapshotNumber = 0;
+  private final Object writeLock = new Object();
+
+  BarrelIndex(DeathBarrel plugin, File file) {
+    this.plugin = plugin;
+    this.file = file;
+  }
+
+  /**
+   * Add a barrel to the index. Replaces any existing entry at the same
+   * position.
+   *
+   * @param barrel - Barrel to add.
+   */
+  synchronized void add(IndexedBarrel barrel) {
+    BarrelPosition position = barrel.getPosition();
+    barrels.put(position, barrel);
+    chunks.computeIfAbsent(position.getWorldId(), k -> new HashMap<>())
+        .computeIfAbsent(position.getChunkKey(), k -> new LinkedHashMap<>())
+        .put(position, barrel);
+    dirty = true;
+  }
+
+  /**
+   * Remove a barrel from the index.
+   *
+   * @param position - Position of the barrel.
+   * @return The removed entry or null if there was no barrel at the position.
+   */
+  synchronized IndexedBarrel remove(BarrelPosition position) {
+    IndexedBarrel removed = barrels.remove(position);
+    if (removed == null) {
+      return null;
+    }
+    Map<Long, Map<BarrelPosition, IndexedBarrel>> worldChunks = chunks.get(position.getWorldId());
+    Map<BarrelPosition, IndexedBarrel> chunk = worldChunks.get(position.getChunkKey());
+    chunk.remove(position);
+    if (chunk.isEmpty()) {
+      worldChunks.remove(position.getChunkKey());
+      if (worldChunks.isEmpty()) {
+        chunks.remove(position.getWorldId());
+      }
+    }
+    dirty = true;
+    return removed;
+  }
+
+  boolean contains(BarrelPosition position) {
+    return barrels.containsKey(position);
+  }
+
+  IndexedBarrel get(BarrelPosition position) {
+    return barrels.get(position);
+  }
+
+  /**
+   * Get all indexed barrels in a chunk.
+   *
+   * @param worldId - UUID of the world.
+   * @param chunkX  - Chunk x coordinate.
+   * @param chunkZ  - Chunk z coordinate.
+   * @return Copy of the barrels in the chunk. Empty if there are none.
+   */
+  synchronized Collection<IndexedBarrel> getInChunk(UUID worldId, int chunkX, int chunkZ) {
+    Map<Long, Map<BarrelPosition, IndexedBarrel>> worldChunks = chunks.get(worldId);
+    if (worldChunks == null) {
+      return Collections.emptyList();
+    }
+    Map<BarrelPosition, IndexedBarrel> chunk = worldChunks.get(Util.chunkKey(chunkX, chunkZ));
+    if (chunk == null) {
+      return Collections.emptyList();
+    }
+    return new ArrayList<>(chunk.values());
+  }
+
+  /**
+   * @return Copy of all indexed barrels.
+   */
+  synchronized Collection<IndexedBarrel> getAll() {
+    return new ArrayList<>(barrels.values());
+  }
+
+  int size() {
+    return barrels.size();
+  }
+
+  /**
+   * @return Generation chunks have to be scanned for to be sure all their
+   *         death barrels are indexed.
+   */
+  int getScanGeneration() {
+    return scanGeneration;
+  }
+
+  /**
+   * Load the index from disk, replacing the current contents. Malformed
+   * entries are skipped.
+   *
+   * <p>If the index is missing or was not saved on shutdown, barrels created
+   * after its last save are missing from it. A new scan generation is picked
+   * then. The file is rewritten right away to record that the index is in
+   * use, so a crash before the next save is noticed on the next start. A file
+   * which could not be read is left alone until the next save.
+   */
+  synchronized void load() {
+    barrels.clear();
+    chunks.clear();
+    dirty = false;
+    scanGeneration = newScanGeneration();
+
+    if (!file.exists()) {
+      writeSnapshot(false, false);
+      return;
+    }
+
+    YamlConfiguration yaml = new YamlConfiguration();
+    try {
+      yaml.load(file);
+    } catch (IOException | InvalidConfigurationException e) {
+      plugin.getLogger().log(Level.SEVERE, "Could not load barrel index from " + file, e);
+      return;
+    }
+
+    for (String entry : yaml.getStringList(BARRELS_KEY)) {
+      IndexedBarrel barrel = deserialize(entry);
+      if (barrel == null) {
+        plugin.getLogger().warning("Skipping invalid barrel index entry: " + entry);
+        continue;
+      }
+      add(barrel);
+    }
+    dirty = false;
+
+    int savedGeneration = yaml.getInt(SCAN_GENERATION_KEY);
+    if (yaml.getBoolean(CLEAN_SHUTDOWN_KEY) && savedGeneration != 0) {
+      scanGeneration = savedGeneration;
+    } else {
+      plugin.getLogger().warning("The barrel index was not saved on shutdown, death barrels"
+          + " created since its last save are missing until their chunks are scanned.");
+    }
+    writeSnapshot(false, false);
+  }
+
+  private static int newScanGeneration() {
+    int generation;
+    do {
+      generation = ThreadLocalRandom.current().nextInt();
+    } while (generation == 0);
+    return generation;
+  }
+
+  /**
+   * Save the index to disk if it has changed since the last save.
+   *
+   * @param async - If true the file is written on a separate thread. The
+   *              entries are always copied on the calling thread, turning
+   *              them into YAML happens on the writing thread.
+   */
+  synchronized void save(boolean async) {
+    if (!dirty) {
+      return;
+    }
+    dirty = false;
+    writeSnapshot(false, async);
+  }
+
+  /**
+   * Save the index on shutdown. Marks it as complete, so chunks are not
+   * scanned again on the next start.
+   */
+  synchronized void close() {
+    dirty = false;
+    writeSnapshot(true, false);
+  }
+
+  /**
+   * Copy the entries and write them. Only the copy is made while holding the
+   * index lock, which region threads on Folia wait for.
+   */
+  private void writeSnapshot(boolean cleanShutdown, boolean async) {
+    List<IndexedBarrel> entries = new ArrayList<>(barrels.values());
+    int generation = scanGeneration;
+    long number = ++snapshotNumber;
+
+    Runnable task = () -> write(number, toYaml(entries, generation, cleanShutdown));
+    if (async) {
+      plugin.getTaskScheduler().runAsync(task);
+    } else {
+      task.run();
+    }
+  }
+
+  private static String toYaml(List<IndexedBarrel> entries, int generation,
+                               boolean cleanShutdown) {
+    List<String> serialized = new ArrayList<>(entries.size());
+    for (IndexedBarrel barrel : entries) {
+      serialized.add(serialize(barrel));
+    }
+    YamlConfiguration yaml = new YamlConfiguration();
+    yaml.set(SCAN_GENERATION_KEY, generation);
+    yaml.set(CLEAN_SHUTDOWN_KEY, cleanShutdown);
+    yaml.set(BARRELS_KEY, serialized);
+    return yaml.saveToString();
+  }
+
+  private void write(long number, String data) {
+    synchronized (writeLock) {
+      if (number < writtenSnapshotNumber) {
+        return;
+      }
+      writtenSnapshotNumber = number;
+      try {
+        File parent = file.getParentFile();
+        if (parent != null) {
+          parent.mkdirs();
+        }
+        Files.write(file.toPath(), data.getBytes(StandardCharsets.UTF_8));
+      } catch (IOException e) {
+        plugin.getLogger().log(Level.SEVERE, "Could not save barrel index to " + file, e);
+      }
+    }
+  }
+
+  private static String serialize(IndexedBarrel barrel) {
+    BarrelPosition position = barrel.getPosition();
+    return position.getWorldId() + ";" + position.getX() + ";" + position.getY() + ";"
+        + position.getZ() + ";" + barrel.getCreatedAt() + ";"
+        + (barrel.getOwner() == null ? "" : barrel.getOwner().toString());
+  }
+
+  private static IndexedBarrel deserialize(String entry) {
+    String[] parts = entry.split(";", -1);
+    if (parts.length != 6) {
+      return null;
+    }
+    try {
+      BarrelPosition position = new BarrelPosition(UUID.fromString(parts[0]),
+          Integer.parseInt(parts[1]), Integer.parseInt(parts[2]), Integer.parseInt(parts[3]));
+      long createdAt = Long.parseLong(parts[4]);
+      UUID owner = parts[5].isEmpty() ? null : UUID.fromString(parts[5]);
+      return new IndexedBarrel(position, owner, createdAt);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,29 @@
+package com.tallcraft.deathbarrel;
+
+import org.bukkit.NamespacedKey;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * Keys of the barrel metadata stored in the persistent data container. Created
+ * once so event handlers don't allocate new keys for every check.
+ */
+public final class BarrelKeys {
+  final NamespacedKey isDeathBarrel;
+  final NamespacedKey version;
+  final NamespacedKey createdAt;
+  final NamespacedKey owner;
+  // Owner as string, used by older versions.
+  final NamespacedKey ownerUuid;
+  // Stored on chunks: scan generation of the barrel index the chunk has been
+  // scanned for, see BarrelIndex#getScanGeneration().
+  final NamespacedKey scanGeneration;
+
+  BarrelKeys(Plugin plugin) {
+    this.isDeathBarrel = new NamespacedKey(plugin, "isDeathBarrel");
+    this.version = new NamespacedKey(plugin, "version");
+    this.createdAt = new NamespacedKey(plugin, "createdAt");
+    this.owner = new NamespacedKey(plugin, "owner");
+    this.ownerUuid = new NamespacedKey(plugin, "ownerUUID");
+    this.scanGeneration = new NamespacedKey(plugin, "scanGeneration");
+  }
+}
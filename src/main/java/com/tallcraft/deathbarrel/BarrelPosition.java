@@ -0,0 +1,98 @@
+package com.tallcraft.deathbarrel;
+
+import java.util.UUID;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+
+/**
+ * Immutable block position of a death barrel. Used as a hash key, so unlike
+ * {@link Location} it does not hold a reference to the world.
+ */
+public final class BarrelPosition {
+  private final UUID worldId;
+  private final int x;
+  private final int y;
+  private final int z;
+
+  BarrelPosition(UUID worldId, int x, int y, int z) {
+    this.worldId = worldId;
+    this.x = x;
+    this.y = y;
+    this.z = z;
+  }
+
+  static BarrelPosition of(Block block) {
+    return new BarrelPosition(block.getWorld().getUID(), block.getX(), block.getY(), block.getZ());
+  }
+
+  static BarrelPosition of(Location location) {
+    return new BarrelPosition(location.getWorld().getUID(), location.getBlockX(),
+                              location.getBlockY(), location.getBlockZ());
+  }
+
+  UUID getWorldId() {
+    return worldId;
+  }
+
+  int getX() {
+    return x;
+  }
+
+  int getY() {
+    return y;
+  }
+
+  int getZ() {
+    return z;
+  }
+
+  int getChunkX() {
+    return x >> 4;
+  }
+
+  int getChunkZ() {
+    return z >> 4;
+  }
+
+  long getChunkKey() {
+    return Util.chunkKey(getChunkX(), getChunkZ());
+  }
+
+  /**
+   * Get the block at this position.
+   *
+   * @param world - World of this position. Must match the world id.
+   * @return The block at this position.
+   */
+  Block getBlock(World world) {
+    return world.getBlockAt(x, y, z);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof BarrelPosition)) {
+      return false;
+    }
+    BarrelPosition other = (BarrelPosition) o;
+    return x == other.x && y == other.y && z == other.z && worldId.equals(other.worldId);
+  }
+
+  @Override
+  public int hashCode() {
+    int result = worldId.hashCode();
+    result = 31 * result + x;
+    result = 31 * result + y;
+    result = 31 * result + z;
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    return "[" + x + ", " + y + ", " + z + "]";
+  }
+}
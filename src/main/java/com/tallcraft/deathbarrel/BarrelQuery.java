@@ -0,0 +1,171 @@
+package com.tallcraft.deathbarrel;
+
+import java.util.UUID;
+
+import org.bukkit.Location;
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+
+/**
+ * Filter for indexed barrels, parsed from command arguments such as
+ * {@code world_nether radius=100 age=7d owner=Notch page=2}. The argument
+ * {@code confirm} confirms purges without filters.
+ */
+public final class BarrelQuery {
+  private UUID worldId = null;
+  private int centerX = 0;
+  private int centerZ = 0;
+  private long radiusSquared = -1;
+  private long minAgeSeconds = -1;
+  private String ownerName = null;
+  private UUID owner = null;
+  private int page = 1;
+  private boolean confirmed = false;
+
+  private BarrelQuery() {
+  }
+
+  /**
+   * Parse a query from command arguments. Errors are reported to the sender.
+   *
+   * @param server - Server to look up worlds.
+   * @param sender - Sender of the command. Radius filters are centered on
+   *               their location.
+   * @param args   - Command arguments, starting after the subcommand.
+   * @return The query or null if the arguments are invalid.
+   */
+  static BarrelQuery parse(Server server, CommandSender sender, String[] args) {
+    BarrelQuery query = new BarrelQuery();
+    long radius = -1;
+
+    for (String arg : args) {
+      if (arg.equalsIgnoreCase("confirm")) {
+        query.confirmed = true;
+        continue;
+      }
+      int separator = arg.indexOf('=');
+      if (separator < 0) {
+        World world = server.getWorld(arg);
+        if (world == null) {
+          sender.sendMessage("Unknown world: " + arg);
+          return null;
+        }
+        query.worldId = world.getUID();
+        continue;
+      }
+
+      String key = arg.substring(0, separator).toLowerCase();
+      String value = arg.substring(separator + 1);
+      switch (key) {
+        case "radius":
+          radius = parseNumber(value);
+          break;
+        case "age":
+          query.minAgeSeconds = Util.parseDuration(value);
+          if (query.minAgeSeconds < 0) {
+            sender.sendMessage("Invalid age: " + value);
+            return null;
+          }
+          break;
+        case "owner":
+          query.ownerName = value;
+          break;
+        case "page":
+          query.page = (int) Math.min(Integer.MAX_VALUE, parseNumber(value));
+          if (query.page < 1) {
+            sender.sendMessage("Invalid page: " + value);
+            return null;
+          }
+          break;
+        default:
+          sender.sendMessage("Unknown filter: " + key);
+          return null;
+      }
+      if (key.equals("radius") && radius < 0) {
+        sender.sendMessage("Invalid radius: " + value);
+        return null;
+      }
+    }
+
+    if (radius >= 0) {
+      if (!(sender instanceof Player)) {
+        sender.sendMessage("Only players can filter by radius.");
+        return null;
+      }
+      Location location = ((Player) sender).getLocation();
+      UUID playerWorldId = location.getWorld().getUID();
+      if (query.worldId != null && !query.worldId.equals(playerWorldId)) {
+        sender.sendMessage("Radius can only be used in your current world.");
+        return null;
+      }
+      query.worldId = playerWorldId;
+      query.centerX = location.getBlockX();
+      query.centerZ = location.getBlockZ();
+      query.radiusSquared = radius * radius;
+    }
+    return query;
+  }
+
+  private static long parseNumber(String value) {
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Look up the UUID of the owner filter. May block, call it off the main
+   * thread.
+   *
+   * @param server - Server to look up the player.
+   */
+  void resolveOwner(Server server) {
+    if (ownerName != null) {
+      owner = server.getOfflinePlayer(ownerName).getUniqueId();
+    }
+  }
+
+  /**
+   * Test if a barrel matches all filters. The owner has to be resolved first.
+   *
+   * @param barrel - Barrel to test.
+   * @param now    - Current time as unix timestamp in seconds.
+   * @return true if the barrel matches.
+   */
+  boolean matches(IndexedBarrel barrel, long now) {
+    BarrelPosition position = barrel.getPosition();
+    if (worldId != null && !worldId.equals(position.getWorldId())) {
+      return false;
+    }
+    if (radiusSquared >= 0) {
+      long dx = position.getX() - centerX;
+      long dz = position.getZ() - centerZ;
+      if (dx * dx + dz * dz > radiusSquared) {
+        return false;
+      }
+    }
+    if (minAgeSeconds >= 0
+        && (barrel.getCreatedAt() < 0 || now - barrel.getCreatedAt() < minAgeSeconds)) {
+      return false;
+    }
+    return ownerName == null || owner.equals(barrel.getOwner());
+  }
+
+  int getPage() {
+    return page;
+  }
+
+  /**
+   * @return true if any filter is set, i.e. not every barrel matches.
+   */
+  boolean hasFilters() {
+    return worldId != null || radiusSquared >= 0 || minAgeSeconds >= 0 || ownerName != null;
+  }
+
+  boolean isConfirmed() {
+    return confirmed;
+  }
+}
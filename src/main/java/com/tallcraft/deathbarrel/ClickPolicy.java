@@ -0,0 +1,103 @@
+package com.tallcraft.deathbarrel;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import org.bukkit.event.inventory.InventoryAction;
+
+/**
+ * Which inventory actions players may perform while a DeathBarrel is open.
+ * Rules depend on whether the clicked slot belongs to the barrel or to the
+ * player's inventory, and are precomputed into one set per slot region.
+ */
+public final class ClickPolicy {
+  // Defaults let players take items from barrels, but not insert any.
+  static final List<String> DEFAULT_ALLOW_ANYWHERE = Arrays.asList(
+      InventoryAction.PICKUP_ALL.name(),
+      InventoryAction.PICKUP_SOME.name(),
+      InventoryAction.PICKUP_ONE.name(),
+      InventoryAction.PICKUP_HALF.name(),
+      InventoryAction.CLONE_STACK.name(),
+      InventoryAction.COLLECT_TO_CURSOR.name(),
+      InventoryAction.HOTBAR_MOVE_AND_READD.name(),
+      InventoryAction.NOTHING.name());
+  // Moving items out of the barrel by shift clicking.
+  static final List<String> DEFAULT_ALLOW_IN_BARREL = Arrays.asList(
+      InventoryAction.MOVE_TO_OTHER_INVENTORY.name());
+  // Swapping and placing items outside of the barrel.
+  static final List<String> DEFAULT_ALLOW_OUTSIDE_BARREL = Arrays.asList(
+      InventoryAction.SWAP_WITH_CURSOR.name(),
+      InventoryAction.HOTBAR_SWAP.name(),
+      InventoryAction.PLACE_ALL.name(),
+      InventoryAction.PLACE_ONE.name(),
+      InventoryAction.PLACE_SOME.name());
+
+  private final Set<InventoryAction> allowedInBarrel;
+  private final Set<InventoryAction> allowedOutsideBarrel;
+
+  /**
+   * Create a policy from lists of action names.
+   *
+   * @param allowAnywhere      - Actions allowed on any slot.
+   * @param allowInBarrel      - Actions additionally allowed on barrel slots.
+   * @param allowOutsideBarrel - Actions additionally allowed on player
+   *                           inventory slots.
+   * @param logger             - Logger for unknown action names.
+   */
+  ClickPolicy(Collection<String> allowAnywhere, Collection<String> allowInBarrel,
+              Collection<String> allowOutsideBarrel, Logger logger) {
+    Set<InventoryAction> anywhere = parse(allowAnywhere, logger);
+    allowedInBarrel = parse(allowInBarrel, logger);
+    allowedInBarrel.addAll(anywhere);
+    allowedOutsideBarrel = parse(allowOutsideBarrel, logger);
+    allowedOutsideBarrel.addAll(anywhere);
+  }
+
+  private static Set<InventoryAction> parse(Collection<String> names, Logger logger) {
+    Set<InventoryAction> actions = EnumSet.noneOf(InventoryAction.class);
+    for (String name : names) {
+      try {
+        actions.add(InventoryAction.valueOf(name.toUpperCase()));
+      } catch (IllegalArgumentException e) {
+        logger.warning("Ignoring unknown inventory action in click policy: " + name);
+      }
+    }
+    return actions;
+  }
+
+  /**
+   * Test if a click is allowed.
+   *
+   * @param action      - Inventory action of the click.
+   * @param inBarrel    - true if a barrel slot was clicked, false if a slot of
+   *                    the player inventory was clicked.
+   * @return true if the click is allowed, false if it should be cancelled.
+   */
+  boolean isAllowed(InventoryAction action, boolean inBarrel) {
+    return inBarrel ? allowedInBarrel.contains(action) : allowedOutsideBarrel.contains(action);
+  }
+
+  /**
+   * Test if dragging items across slots is allowed. A drag places items, so it
+   * follows the rules for {@link InventoryAction#PLACE_SOME} on every slot it
+   * touches. With the defaults a drag across both the barrel and the player
+   * inventory is cancelled, since it would put items into the barrel slots.
+   *
+   * @param rawSlots      - Raw slots the items are dragged across.
+   * @param containerSize - Size of the barrel inventory. Raw slots below it
+   *                      belong to the barrel.
+   * @return true if the drag is allowed, false if it should be cancelled.
+   */
+  boolean isDragAllowed(Collection<Integer> rawSlots, int containerSize) {
+    for (int slot : rawSlots) {
+      if (!isAllowed(InventoryAction.PLACE_SOME, slot < containerSize)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -2,15 +2,25 @@ package com.tallcraft.deathbarrel;
 
 import io.papermc.lib.PaperLib;
 
+import java.io.File;
+import java.lang.reflect.Method;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.bstats.bukkit.Metrics;
 import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.HeightMap;
 import org.bukkit.Location;
 import org.bukkit.Material;
-import org.bukkit.NamespacedKey;
+import org.bukkit.World;
 import org.bukkit.block.Barrel;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockState;
@@ -19,19 +29,21 @@ import org.bukkit.configuration.MemoryConfiguration;
 import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.block.BlockBreakEvent;
 import org.bukkit.event.block.BlockExplodeEvent;
 import org.bukkit.event.block.BlockPlaceEvent;
 import org.bukkit.event.entity.EntityExplodeEvent;
 import org.bukkit.event.entity.PlayerDeathEvent;
-import org.bukkit.event.inventory.InventoryAction;
 import org.bukkit.event.inventory.InventoryClickEvent;
 import org.bukkit.event.inventory.InventoryCloseEvent;
 import org.bukkit.event.inventory.InventoryDragEvent;
 import org.bukkit.event.inventory.InventoryMoveItemEvent;
 import org.bukkit.event.inventory.InventoryOpenEvent;
 import org.bukkit.event.inventory.InventoryType;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.event.world.ChunkLoadEvent;
 import org.bukkit.inventory.EquipmentSlot;
 import org.bukkit.inventory.Inventory;
@@ -39,19 +51,93 @@ import org.bukkit.inventory.InventoryHolder;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.persistence.PersistentDataContainer;
 import org.bukkit.persistence.PersistentDataType;
+import org.bukkit.plugin.PluginDescriptionFile;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.plugin.java.JavaPluginLoader;
 
 public final class DeathBarrel extends JavaPlugin implements Listener {
 
+  private static final int NO_FREE_COLUMN = Integer.MIN_VALUE;
+  // Maximum number of blocks looked up per column when searching for a barrel location.
+  private static final int MAX_COLUMN_SCAN = 32;
+  // Paper's Chunk#getTileEntities(boolean), which can skip copying each tile
+  // entity into a snapshot. null on Spigot.
+  private static final Method GET_TILE_ENTITIES = findGetTileEntities();
+
   private final int barrelCapacity = InventoryType.BARREL.getDefaultSize();
-  private FileConfiguration config;
+  private volatile Settings settings;
+  private BarrelKeys keys;
+  private BarrelIndex barrelIndex;
+  private BarrelCleanupTask cleanupTask;
+  private LoadedChunkSweeper chunkSweeper;
+  private TaskScheduler taskScheduler;
+  private DeathQueue deathQueue;
+  private VirtualBarrelStore virtualStore;
+  private DeathJournal journal;
+  private PermissionCache accessProtectedPermission;
+  // Emptied barrels, removed together at the end of the tick.
+  private final Set<BarrelPosition> emptiedBarrels = new LinkedHashSet<>();
+  private final Stats stats = new Stats();
+
+  public DeathBarrel() {
+    super();
+  }
+
+  /**
+   * Create the plugin outside of a server's plugin loader, for the benchmarks
+   * and the soak harness.
+   *
+   * @param loader      - Plugin loader of the stub server.
+   * @param description - Plugin description.
+   * @param dataFolder  - Folder for the config and stored barrels.
+   * @param file        - Plugin jar, does not have to exist.
+   */
+  DeathBarrel(JavaPluginLoader loader, PluginDescriptionFile description, File dataFolder,
+              File file) {
+    super(loader, description, dataFolder, file);
+  }
 
   @Override
   public void onEnable() {
+    taskScheduler = new TaskScheduler(this);
     initConfig();
+    keys = new BarrelKeys(this);
+
+    barrelIndex = new BarrelIndex(this, new File(getDataFolder(), "barrels.yml"));
+    barrelIndex.load();
+    virtualStore = new VirtualBarrelStore(this, new File(getDataFolder(), "virtual-barrels.yml"));
+    virtualStore.load();
+
+    // Journal settings only take effect on restart, reload keeps the writer running.
+    if (settings.journalEnabled) {
+      journal = new DeathJournal(this, new File(getDataFolder(), "journal.log"),
+          settings.journalRetentionDays * 86400L, settings.journalQueueSize);
+    }
+
+    // Periodically persist index and store changes. Writing happens off the main thread.
+    taskScheduler.runTimer(() -> {
+      if (settings.removeBarrelsAfterSeconds > 0) {
+        stats.barrelsExpired.addAndGet(
+            virtualStore.removeExpired(settings.removeBarrelsAfterSeconds));
+      }
+      barrelIndex.save(true);
+      virtualStore.save(true);
+    }, 1200, 1200);
+
+    deathQueue = new DeathQueue(this);
+    deathQueue.start();
+    startCleanupTask();
+
+    // Init bStats metrics. bStats 1.5 submits data via the Bukkit scheduler,
+    // which Folia does not support.
+    if (!taskScheduler.isFolia()) {
+      Metrics metrics = new Metrics(this);
+      if (settings.metricsCustomCharts) {
+        addCustomCharts(metrics);
+      }
+    }
 
-    // Init bStats metrics.
-    new Metrics(this);
+    getCommand("deathbarrel").setExecutor(new DeathBarrelCommand(this));
 
     // Enable event handlers.
     getServer().getPluginManager().registerEvents(this, this);
@@ -59,18 +145,179 @@ public final class DeathBarrel extends JavaPlugin implements Listener {
     PaperLib.suggestPaper(this);
   }
 
+  /**
+   * Called by the chunk sweeper after it has checked every loaded chunk once.
+   */
+  void onSweepPassComplete() {
+    if (chunkSweeper != null) {
+      chunkSweeper.cancel();
+      chunkSweeper = null;
+    }
+  }
+
+  /**
+   * Start the cleanup scheduler, which handles expiry if enabled and purges.
+   * Its queue is rebuilt from the index so expiry survives restarts and
+   * reloads. Stops any previously started scheduler and takes over the
+   * purges it has not processed yet.
+   */
+  private void startCleanupTask() {
+    BarrelCleanupTask previous = cleanupTask;
+    if (previous != null) {
+      previous.cancel();
+    }
+
+    cleanupTask = new BarrelCleanupTask(this, barrelIndex, settings.removeBarrelsAfterSeconds,
+        settings.cleanupMaxChunkLoads, settings.cleanupMaxTickMillis);
+    cleanupTask.rebuild();
+    if (previous != null) {
+      // Keep purges requested before a reload going.
+      cleanupTask.takePurges(previous);
+    }
+    cleanupTask.start();
+
+    if (chunkSweeper != null) {
+      chunkSweeper.cancel();
+      chunkSweeper = null;
+    }
+
+    // Expiry of barrels in chunks which stay loaded is handled by the cleanup
+    // task, the sweep is only needed to scan chunks which were loaded before
+    // the plugin was enabled. Folia has no thread which may walk the loaded
+    // chunks of a whole world.
+    if (settings.scanChunksForUnindexedBarrels && settings.sweepChunksPerTick > 0
+        && !taskScheduler.isFolia()) {
+      chunkSweeper = new LoadedChunkSweeper(this, settings.sweepChunksPerTick,
+          settings.sweepMaxTickMicros);
+      chunkSweeper.start();
+    }
+  }
+
+  /**
+   * Reload the config from disk and swap in the new settings. Custom bStats
+   * charts are only set up on enable.
+   */
+  void reload() {
+    reloadConfig();
+    initConfig();
+    startCleanupTask();
+  }
+
+  /**
+   * Report barrel counters as custom bStats charts. Each chart reports the
+   * change since its last submission.
+   *
+   * @param metrics - bStats instance to add the charts to.
+   */
+  private void addCustomCharts(Metrics metrics) {
+    addCounterChart(metrics, "barrels_created", stats.barrelsCreated);
+    addCounterChart(metrics, "barrels_expired", stats.barrelsExpired);
+    addCounterChart(metrics, "barrels_emptied", stats.barrelsEmptied);
+  }
+
+  private void addCounterChart(Metrics metrics, String chartId, AtomicLong counter) {
+    AtomicLong lastReported = new AtomicLong();
+    metrics.addCustomChart(new Metrics.SingleLineChart(chartId, () -> {
+      long value = counter.get();
+      return (int) (value - lastReported.getAndSet(value));
+    }));
+  }
+
+  @Override
+  public void onDisable() {
+    if (deathQueue != null) {
+      // Queued drops only exist in memory, store them before shutting down.
+      deathQueue.flush();
+    }
+    if (!emptiedBarrels.isEmpty()) {
+      removeEmptiedBarrels();
+    }
+    if (barrelIndex != null) {
+      barrelIndex.close();
+    }
+    if (virtualStore != null) {
+      // Virtual inventories may still be open, save their latest contents.
+      // Nothing else is ticking anymore, so they can be read from here.
+      virtualStore.syncAll();
+      virtualStore.save(false);
+    }
+    if (journal != null) {
+      journal.close();
+    }
+  }
+
   private void initConfig() {
-    config = this.getConfig();
+    FileConfiguration config = this.getConfig();
 
     MemoryConfiguration defaultConfig = new MemoryConfiguration();
 
     defaultConfig.set("removeOnEmpty", true);
+    // Remove emptied barrels without block physics and neighbour updates.
+    defaultConfig.set("removeOnEmptyWithoutPhysics", false);
     defaultConfig.set("removeBarrelsAfterSeconds", -1);
     defaultConfig.set("protectFromOtherPlayers", false);
+    // How long to cache the deathbarrel.accessprotected permission per player.
+    // Permission changes take up to this long to apply. 0 disables the cache.
+    defaultConfig.set("permissionCacheSeconds", 5);
+    // Where to store drops: "barrel" places barrel blocks, "virtual" keeps them
+    // in plugin storage which players open with /deathbarrel open.
+    defaultConfig.set("storageMode", "barrel");
+    // How far to search sideways for free space if barrels can't be placed at
+    // the death location.
+    defaultConfig.set("barrelSearchRadius", 2);
+    // Put drops into free slots of the player's own death barrels within this
+    // many blocks of the death location before placing new barrels. 0
+    // always places new barrels.
+    defaultConfig.set("consolidateDeathsRadius", 0);
+    // Merge partial stacks of the same item before storing them, so fewer
+    // barrels are needed.
+    defaultConfig.set("mergeDropStacks", false);
+    // Place barrels from a queue with this much main thread time per tick,
+    // instead of during the death event. Spreads out the cost when many
+    // players die at once. 0 places barrels right away.
+    defaultConfig.set("deathQueueMaxTickMillis", 0.0);
+    // Limits for removing expired barrels: number of concurrent async chunk
+    // loads and main thread time per tick.
+    defaultConfig.set("cleanupMaxChunkLoads", 4);
+    defaultConfig.set("cleanupMaxTickMillis", 2.0);
+    // Sweep over the chunks loaded when the plugin is enabled, to scan chunks
+    // which never fire a load event for unindexed barrels. Number of chunks
+    // and main thread time per tick, set sweepChunksPerTick to 0 to disable.
+    defaultConfig.set("sweepChunksPerTick", 2);
+    defaultConfig.set("sweepMaxTickMicros", 200);
+    // Submit barrel counters as custom bStats charts.
+    defaultConfig.set("metricsCustomCharts", false);
+    // Time event handlers and tasks for /deathbarrel stats. Costs two clock
+    // reads per handled event, counters are kept either way.
+    defaultConfig.set("recordTimings", true);
+    // Scan the tile entities of chunks as they load to pick up barrels missing
+    // from the barrel index, e.g. created before it existed. Each chunk is
+    // scanned once and remembers it, chunks are scanned again once after the
+    // server stopped without saving the index.
+    defaultConfig.set("scanChunksForUnindexedBarrels", true);
+    // Record the contents of every death in journal.log for staff lookups and
+    // restores. Written by a background thread.
+    defaultConfig.set("journalEnabled", true);
+    defaultConfig.set("journalRetentionDays", 7);
+    defaultConfig.set("journalQueueSize", 1024);
+    // Deflate items stored in the journal and the item strings of the virtual
+    // barrel store. Saves space for items with lots of meta, e.g. books.
+    defaultConfig.set("compressStoredItems", false);
+
+    // Inventory actions players may perform in death barrels, by slot region.
+    // See org.bukkit.event.inventory.InventoryAction for the names.
+    ConfigurationSection clickPolicy = defaultConfig.createSection("clickPolicy");
+    clickPolicy.set("allowAnywhere", ClickPolicy.DEFAULT_ALLOW_ANYWHERE);
+    clickPolicy.set("allowInBarrel", ClickPolicy.DEFAULT_ALLOW_IN_BARREL);
+    clickPolicy.set("allowOutsideBarrel", ClickPolicy.DEFAULT_ALLOW_OUTSIDE_BARREL);
 
     ConfigurationSection messages = defaultConfig.createSection("messages");
-    messages.set("deathLocation", "You died at [{0}, {1}, {2}]");
+    // Supported placeholders: {player}, {world}, {x}, {y}, {z}, {items}, {expires}
+    messages.set("deathLocation", "You died at [{x}, {y}, {z}]");
     messages.set("barrelCreated", "Created death barrel.");
+    messages.set("virtualBarrelCreated",
+                 "Your items have been stored. Use /deathbarrel open to get them back.");
+    messages.set("noVirtualBarrel", "You don't have a stored death barrel.");
     messages.set("barrelInventoryTitle", "DeathBarrel");
     messages.set("barrelProtectedBreak", "This barrel is locked. Only the owner can break it.");
     messages.set("barrelProtectedOpen", "This barrel is locked. Only the owner can access it.");
@@ -78,6 +325,11 @@ public final class DeathBarrel extends JavaPlugin implements Listener {
     config.setDefaults(defaultConfig);
     config.options().copyDefaults(true);
     saveConfig();
+
+    settings = new Settings(config, getLogger());
+    stats.setTimingsEnabled(settings.recordTimings);
+    accessProtectedPermission = new PermissionCache("deathbarrel.accessprotected",
+                                                    settings.permissionCacheSeconds);
   }
 
   /**
@@ -113,19 +365,20 @@ public final class DeathBarrel extends JavaPlugin implements Listener {
     }
 
     Barrel barrel = (Barrel) block.getState();
-    barrel.setCustomName(config.getString("messages.barrelInventoryTitle"));
+    barrel.setCustomName(settings.barrelInventoryTitle);
 
     // Set barrel metadata which can be used to identify it and its owner.
     PersistentDataContainer data = barrel.getPersistentDataContainer();
-    data.set(new NamespacedKey(this, "isDeathBarrel"), PersistentDataType.INTEGER, 1);
-    data.set(new NamespacedKey(this, "version"), PersistentDataType.STRING,
-             this.getDescription().getVersion());
-    Long timestamp = Instant.now().getEpochSecond();
-    data.set(new NamespacedKey(this, "createdAt"), PersistentDataType.LONG, timestamp);
-    data.set(new NamespacedKey(this, "ownerUUID"), PersistentDataType.STRING,
-             player.getUniqueId().toString());
+    data.set(keys.isDeathBarrel, PersistentDataType.INTEGER, 1);
+    data.set(keys.version, PersistentDataType.STRING, this.getDescription().getVersion());
+    long timestamp = Instant.now().getEpochSecond();
+    data.set(keys.createdAt, PersistentDataType.LONG, timestamp);
+    DeathBarrelMeta.writeOwner(data, keys, player.getUniqueId());
     barrel.update();
 
+    addToIndex(new IndexedBarrel(BarrelPosition.of(block), player.getUniqueId(), timestamp));
+
+    stats.barrelsCreated.incrementAndGet();
     return barrel;
   }
 
@@ -136,8 +389,17 @@ public final class DeathBarrel extends JavaPlugin implements Listener {
    * @return true if DeathBarrel, false otherwise
    */
   private boolean isDeathBarrel(Barrel barrel) {
-    return barrel.getPersistentDataContainer().has(new NamespacedKey(this, "isDeathBarrel"),
-        PersistentDataType.INTEGER);
+    return barrel.getPersistentDataContainer().has(keys.isDeathBarrel, PersistentDataType.INTEGER);
+  }
+
+  /**
+   * Read the metadata of a barrel.
+   *
+   * @param barrel - Barrel to read.
+   * @return Barrel metadata or null if the barrel is not a DeathBarrel.
+   */
+  private DeathBarrelMeta getMeta(Barrel barrel) {
+    return DeathBarrelMeta.read(barrel.getPersistentDataContainer(), keys);
   }
 
   private boolean isDeathBarrel(Object inventoryHolder) {
@@ -148,14 +410,111 @@ public final class DeathBarrel extends JavaPlugin implements Listener {
   }
 
   /**
-   * Test if a Block is a DeathBarrel.
+   * Test if an inventory belongs to a DeathBarrel. The index decides, so
+   * ordinary barrels are rejected without reading their holder. Chunks are
+   * scanned for barrels missing from the index when they load.
    *
-   * @param barrelBlock - Barrel block to test
+   * @param inventory - Inventory to test
+   * @return true if DeathBarrel inventory, false otherwise
+   */
+  private boolean isDeathBarrel(Inventory inventory) {
+    if (inventory.getType() != InventoryType.BARREL) {
+      return false;
+    }
+    Location location = inventory.getLocation();
+    if (location == null || !barrelIndex.contains(BarrelPosition.of(location))) {
+      return false;
+    }
+    return confirmIndexed(getHolder(inventory));
+  }
+
+  /**
+   * Confirm that an indexed barrel is still a DeathBarrel. Stale entries of
+   * barrels which were replaced behind our back are dropped.
+   *
+   * @param holder - Inventory holder of the indexed barrel
+   * @return true if DeathBarrel, false otherwise
+   */
+  private boolean confirmIndexed(InventoryHolder holder) {
+    if (holder instanceof Barrel && isDeathBarrel((Barrel) holder)) {
+      return true;
+    }
+    if (holder instanceof BlockState) {
+      barrelIndex.remove(BarrelPosition.of(((BlockState) holder).getBlock()));
+    }
+    return false;
+  }
+
+  /**
+   * Test if an inventory holder is a DeathBarrel by reading its metadata, and
+   * index it if it is missing from the index. For handlers which don't run
+   * often enough to need the index as a filter.
+   *
+   * @param holder - Inventory holder to test
    * @return true if DeathBarrel, false otherwise
    */
-  private boolean isDeathBarrel(Block barrelBlock) {
-    return barrelBlock.getBlockData().getMaterial().equals(Material.BARREL)
-        && isDeathBarrel((Barrel) barrelBlock.getState());
+  private boolean checkHolder(InventoryHolder holder) {
+    if (!(holder instanceof Barrel)) {
+      return false;
+    }
+    Barrel barrel = (Barrel) holder;
+    if (!isDeathBarrel(barrel)) {
+      return false;
+    }
+    indexLegacyBarrel(barrel);
+    return true;
+  }
+
+  /**
+   * Get the DeathBarrel tile entity of a block.
+   *
+   * @param block - Block to get the barrel for
+   * @return The barrel or null if the block is not a DeathBarrel
+   */
+  private Barrel getDeathBarrel(Block block) {
+    if (!block.getBlockData().getMaterial().equals(Material.BARREL)) {
+      return null;
+    }
+    BlockState state = getState(block);
+    return isDeathBarrel(state) ? (Barrel) state : null;
+  }
+
+  /**
+   * Get the state of a block for reading. On Paper this accesses the tile
+   * entity directly instead of copying it into a snapshot, on Spigot it falls
+   * back to a snapshot.
+   *
+   * @param block - Block to get the state of
+   * @return The block state
+   */
+  private static BlockState getState(Block block) {
+    return PaperLib.getBlockState(block, false).getState();
+  }
+
+  /**
+   * Get the holder of an inventory, without a tile entity snapshot on Paper.
+   *
+   * @param inventory - Inventory to get the holder of
+   * @return The inventory holder or null
+   */
+  private static InventoryHolder getHolder(Inventory inventory) {
+    return PaperLib.getHolder(inventory, false).getHolder();
+  }
+
+  /**
+   * Test if a Block is a DeathBarrel, see {@link #isDeathBarrel(Inventory)}.
+   * Other blocks and unindexed barrels are rejected without reading a block
+   * state.
+   *
+   * @param block - Block to test
+   * @return true if DeathBarrel, false otherwise
+   */
+  private boolean checkBlock(Block block) {
+    if (block.getType() != Material.BARREL || !barrelIndex.contains(BarrelPosition.of(block))) {
+      return false;
+    }
+    BlockState state = getState(block);
+    return state instanceof InventoryHolder && confirmIndexed((InventoryHolder) state);
   }
 
   /**
@@ -171,12 +530,8 @@ public final class DeathBarrel extends JavaPlugin implements Listener {
     if (player == null || barrel == null) {
       return false;
     }
-    String ownerUuid = barrel.getPersistentDataContainer().get(new NamespacedKey(this, "ownerUUID"),
-        PersistentDataType.STRING);
-    if (ownerUuid == null) {
-      return false;
-    }
-    return player.getUniqueId().toString().equals(ownerUuid);
+    return DeathBarrelMeta.isOwner(barrel.getPersistentDataContainer(), keys,
+                                   player.getUniqueId());
   }
 
   /**
@@ -191,14 +546,17 @@ public final class DeathBarrel extends JavaPlugin implements Listener {
    *                 barrel place event.
    * @param drops    - Death drops of player.
    * @param location - Location where barrels should be placed.
+   * @param stored   - Receives the items stored in barrels.
    * @return true if death barrel/s have been placed, false otherwise
    */
-  private boolean createDeathBarrels(Player player, List<ItemStack> drops, Location location) {
+  private boolean createDeathBarrels(Player player, List<ItemStack> drops, Location location,
+                                     List<ItemStack> stored) {
     if (drops.size() == 0) {
       return false;
     }
-    int barrelCount = (int) Math.ceil(drops.size() / (float) barrelCapacity);
-    int placedBarrelCount = 0;
+    ItemStack[] allDrops = drops.toArray(new ItemStack[0]);
+    int barrelCount = (int) Math.ceil(allDrops.length / (float) barrelCapacity);
+    int storedCount = 0;
 
     for (int i = 0; i < barrelCount; i++) {
       Barrel barrel = placeBarrel(player, i == 0 ? location : location.clone().add(0, i, 0));
@@ -208,23 +566,151 @@ public final class DeathBarrel extends JavaPlugin implements Listener {
         // Remaining items not stored in barrels will be dropped on the floor.
         break;
       }
-      placedBarrelCount++;
 
-      ItemStack[] dropPartition = new ItemStack[barrelCapacity];
-      for (int j = 0; drops.size() > 0 && j < barrelCapacity; j++) {
-        dropPartition[j] = drops.remove(0);
+      // Slices past the end of the drops are padded with empty slots.
+      barrel.getInventory().setContents(Arrays.copyOfRange(allDrops, storedCount,
+                                                           storedCount + barrelCapacity));
+      storedCount = Math.min(storedCount + barrelCapacity, allDrops.length);
+    }
+
+    stored.addAll(Arrays.asList(allDrops).subList(0, storedCount));
+    // Remove stored items from the drop list in one go.
+    drops.subList(0, storedCount).clear();
+    return storedCount > 0;
+  }
+
+  /**
+   * Store player drops in virtual barrels instead of placing barrel blocks.
+   * Stored items are removed from the drop list.
+   *
+   * @param player - Player who died.
+   * @param drops  - Death drops of player.
+   */
+  private void storeVirtualBarrels(Player player, List<ItemStack> drops) {
+    Location location = player.getLocation();
+    int dropCount = drops.size();
+    int created = virtualStore.store(player.getUniqueId(), drops, location);
+    if (journal != null && created > 0) {
+      journal.record(player.getUniqueId(), location, drops.toArray(new ItemStack[0]));
+    }
+    drops.clear();
+
+    MessageContext context = new MessageContext()
+        .player(player.getName())
+        .location(location)
+        .items(dropCount)
+        .expires(settings.expiresText);
+    player.sendMessage(settings.deathLocationMessage.render(context));
+    if (created > 0) {
+      player.sendMessage(settings.virtualBarrelCreatedMessage.render(context));
+    }
+  }
+
+  /**
+   * Open a player's virtual barrel.
+   *
+   * @param player - Player to open the barrel for. Only their own barrels can
+   *               be opened.
+   * @param number - Which barrel to open, 1 being the most recent one.
+   * @return true if the barrel was opened, false if there is no such barrel.
+   */
+  boolean openVirtualBarrel(Player player, int number) {
+    List<VirtualBarrel> barrels = virtualStore.getBarrels(player.getUniqueId());
+    if (number < 1 || number > barrels.size()) {
+      return false;
+    }
+    VirtualBarrel barrel = barrels.get(barrels.size() - number);
+    player.openInventory(virtualStore.getInventory(barrel, settings.barrelInventoryTitle));
+    return true;
+  }
+
+  /**
+   * Check whether a death from the journal still has a barrel at its
+   * recorded location, so restoring it would duplicate the items left there.
+   *
+   * @param death - Recorded death.
+   * @return true if a death barrel or a virtual barrel of the owner is still
+   *         at the location.
+   */
+  boolean hasBarrel(DeathJournal.Summary death) {
+    for (VirtualBarrel barrel : virtualStore.getBarrels(death.owner)) {
+      if (barrel.getWorld().equals(death.world) && barrel.getX() == death.x
+          && barrel.getY() == death.y && barrel.getZ() == death.z) {
+        return true;
+      }
+    }
+    World world = getServer().getWorld(death.world);
+    return world != null
+        && barrelIndex.contains(new BarrelPosition(world.getUID(), death.x, death.y, death.z));
+  }
+
+  /**
+   * Find a free column of air blocks to place a stack of barrels in. Starts at
+   * the death location and searches upwards, then in the surrounding columns.
+   *
+   * @param deathLocation - Where the player died.
+   * @param height        - Number of barrels which need to fit in the column.
+   * @return Location of the lowest barrel or null if no free column was found.
+   */
+  private Location findBarrelLocation(Location deathLocation, int height) {
+    World world = deathLocation.getWorld();
+    int minY = world.getMinHeight() + 2;
+    int maxY = world.getMaxHeight() - 1;
+    int startY = Math.max(deathLocation.getBlockY(), minY);
+
+    for (int radius = 0; radius <= settings.barrelSearchRadius; radius++) {
+      for (int dx = -radius; dx <= radius; dx++) {
+        for (int dz = -radius; dz <= radius; dz++) {
+          // Only visit the ring at the current radius, inner columns have been checked.
+          if (Math.max(Math.abs(dx), Math.abs(dz)) != radius) {
+            continue;
+          }
+          int x = deathLocation.getBlockX() + dx;
+          int z = deathLocation.getBlockZ() + dz;
+          int y = findFreeColumn(world, x, z, startY, maxY, height);
+          if (y != NO_FREE_COLUMN) {
+            return new Location(world, x, y, z);
+          }
+        }
       }
-      barrel.getInventory().setContents(dropPartition);
+    }
+    return null;
+  }
 
-      // If barrel cleanup is enabled, schedule it for removal after the configured timespan.
-      long removeBarrelsAfterSeconds = config.getLong("removeBarrelsAfterSeconds", -1);
-      if (removeBarrelsAfterSeconds > 0) {
-        new BarrelCleanupTask(this, barrel.getLocation(), removeBarrelsAfterSeconds)
-          .runTaskLater(this, removeBarrelsAfterSeconds * 20);
+  /**
+   * Find the lowest run of air blocks in a column. Blocks above the world
+   * surface heightmap are known to be air, so at most
+   * {@link #MAX_COLUMN_SCAN} blocks are looked up.
+   *
+   * @param world  - World of the column.
+   * @param x      - Column x coordinate.
+   * @param z      - Column z coordinate.
+   * @param startY - Lowest y to start searching at.
+   * @param maxY   - Highest y a barrel may be placed at.
+   * @param height - Required number of air blocks.
+   * @return y of the lowest air block of the run or {@link #NO_FREE_COLUMN}.
+   */
+  private int findFreeColumn(World world, int x, int z, int startY, int maxY, int height) {
+    int surfaceY = world.getHighestBlockYAt(x, z, HeightMap.WORLD_SURFACE);
+    int scanEndY = Math.min(surfaceY, startY + MAX_COLUMN_SCAN - 1);
+    int runStartY = startY;
+
+    for (int y = startY; y <= scanEndY; y++) {
+      if (!world.getBlockAt(x, y, z).getType().isAir()) {
+        runStartY = y + 1;
+        continue;
+      }
+      if (y - runStartY + 1 >= height) {
+        return runStartY;
       }
     }
 
-    return placedBarrelCount > 0;
+    // Stopped scanning below the surface, continue right above it instead.
+    if (scanEndY < surfaceY) {
+      runStartY = surfaceY + 1;
+    }
+    // Everything above the surface is air.
+    return runStartY + height - 1 <= maxY ? runStartY : NO_FREE_COLUMN;
   }
 
   /**
@@ -232,37 +718,194 @@ public final class DeathBarrel extends JavaPlugin implements Listener {
    */
   @EventHandler(ignoreCancelled = true)
   public void onPlayerDeathEvent(PlayerDeathEvent event) {
-    Player player = event.getEntity();
+    long start = stats.start();
+    try {
+      Player player = event.getEntity();
 
-    if (!player.hasPermission("deathbarrel.use")) {
-      return;
+      if (!player.hasPermission("deathbarrel.use")) {
+        return;
+      }
+
+      if (settings.mergeDropStacks) {
+        Util.mergeSimilarStacks(event.getDrops());
+      }
+
+      if (settings.virtualStorage) {
+        storeVirtualBarrels(player, event.getDrops());
+        return;
+      }
+
+      if (settings.deathQueueMaxTickMillis > 0 && !event.getDrops().isEmpty()) {
+        // Take the drops out of the event, so they are only held by the queue.
+        List<ItemStack> drops = new ArrayList<>(event.getDrops());
+        event.getDrops().clear();
+        deathQueue.add(player, drops);
+        return;
+      }
+
+      storeDeathBarrels(player, player.getLocation(), event.getDrops());
+    } finally {
+      stats.record(Stats.Handler.PLAYER_DEATH, start);
     }
+  }
 
-    Location location = player.getLocation();
-    int minHeight = location.getWorld().getMinHeight() + 2;
+  /**
+   * Place death barrels near the death location and tell the player where
+   * they are. Stored items are removed from the drop list.
+   *
+   * @param player        - Player who died.
+   * @param deathLocation - Where the player died.
+   * @param drops         - Death drops of player.
+   */
+  private void storeDeathBarrels(Player player, Location deathLocation, List<ItemStack> drops) {
+    List<ItemStack> stored = new ArrayList<>(drops.size());
+    Location location = null;
+    if (settings.consolidateDeathsRadius > 0 && !drops.isEmpty()) {
+      location = fillNearbyBarrels(player, deathLocation, drops, stored);
+    }
 
-    if (location.getBlockY() < minHeight) {
-      location.setY(minHeight);
+    // Place new barrels for the drops which did not fit into existing ones.
+    if (!drops.isEmpty()) {
+      int barrelCount = (int) Math.ceil(drops.size() / (float) barrelCapacity);
+      Location barrelLocation = findBarrelLocation(deathLocation, Math.max(1, barrelCount));
+      if (barrelLocation != null) {
+        createDeathBarrels(player, drops, barrelLocation, stored);
+        if (location == null) {
+          location = barrelLocation;
+        }
+      }
+    }
+    if (location == null) {
+      // Nothing stored, still tell the player where they died.
+      location = deathLocation;
     }
 
-    /* Found the air to the terrain surface */
-    while (location.getBlock().getType() != Material.AIR
-        && location.getBlock().getType() != Material.VOID_AIR
-        && location.getBlock().getType() != Material.CAVE_AIR) {
-      if (location.getY() > location.getWorld().getMaxHeight() - 2) {
-        return;
+    if (journal != null && !stored.isEmpty()) {
+      journal.record(player.getUniqueId(), location, stored.toArray(new ItemStack[0]));
+    }
+
+    MessageContext context = new MessageContext()
+        .player(player.getName())
+        .location(location)
+        .items(stored.size())
+        .expires(settings.expiresText);
+    player.sendMessage(settings.deathLocationMessage.render(context));
+    if (!stored.isEmpty()) {
+      player.sendMessage(settings.barrelCreatedMessage.render(context));
+    }
+  }
+
+  /**
+   * Move drops into free slots of the player's own death barrels near the
+   * death location. Barrels are found via the index and their owner is
+   * confirmed with the barrel metadata. Barrels which receive drops start
+   * their expiry over, so the new drops get the full time.
+   *
+   * @param player        - Player who died.
+   * @param deathLocation - Where the player died.
+   * @param drops         - Death drops of player. Stored items are removed.
+   * @param stored        - Receives the items stored in barrels.
+   * @return Location of the first barrel drops were added to or null if none.
+   */
+  private Location fillNearbyBarrels(Player player, Location deathLocation,
+                                     List<ItemStack> drops, List<ItemStack> stored) {
+    World world = deathLocation.getWorld();
+    int radius = settings.consolidateDeathsRadius;
+    int x = deathLocation.getBlockX();
+    int y = deathLocation.getBlockY();
+    int z = deathLocation.getBlockZ();
+    long now = Instant.now().getEpochSecond();
+    Location first = null;
+
+    for (int chunkX = (x - radius) >> 4; chunkX <= (x + radius) >> 4; chunkX++) {
+      for (int chunkZ = (z - radius) >> 4; chunkZ <= (z + radius) >> 4; chunkZ++) {
+        if (!world.isChunkLoaded(chunkX, chunkZ)) {
+          continue;
+        }
+        for (IndexedBarrel indexed : barrelIndex.getInChunk(world.getUID(), chunkX, chunkZ)) {
+          if (drops.isEmpty()) {
+            return first;
+          }
+          BarrelPosition position = indexed.getPosition();
+          if (!player.getUniqueId().equals(indexed.getOwner()) || isExpired(indexed, now)
+              || Math.abs(position.getX() - x) > radius || Math.abs(position.getY() - y) > radius
+              || Math.abs(position.getZ() - z) > radius) {
+            continue;
+          }
+          Barrel barrel = getDeathBarrel(position.getBlock(world));
+          if (barrel == null || !isOwner(player, barrel)) {
+            continue;
+          }
+          if (fillFreeSlots(barrel, indexed, drops, stored, now) && first == null) {
+            first = barrel.getLocation();
+          }
+        }
+      }
+    }
+    return first;
+  }
+
+  private boolean isExpired(IndexedBarrel barrel, long now) {
+    return settings.removeBarrelsAfterSeconds > 0 && barrel.getCreatedAt() >= 0
+        && barrel.getCreatedAt() + settings.removeBarrelsAfterSeconds <= now;
+  }
+
+  /**
+   * Put drops into the empty slots of a death barrel, in order. Partial
+   * stacks are not topped up, so every drop is stored whole or not at all.
+   *
+   * @param barrel  - Barrel to fill.
+   * @param indexed - Index entry of the barrel.
+   * @param drops   - Death drops of player. Stored items are removed.
+   * @param stored  - Receives the items stored in the barrel.
+   * @param now     - Current time as unix timestamp in seconds.
+   * @return true if any drops were stored.
+   */
+  private boolean fillFreeSlots(Barrel barrel, IndexedBarrel indexed, List<ItemStack> drops,
+                                List<ItemStack> stored, long now) {
+    // Restart expiry before touching the contents. On Spigot the state is a
+    // snapshot and update() would otherwise overwrite the new items.
+    if (barrel.getInventory().firstEmpty() < 0) {
+      return false;
+    }
+    barrel.getPersistentDataContainer().set(keys.createdAt, PersistentDataType.LONG, now);
+    barrel.update();
+    addToIndex(new IndexedBarrel(indexed.getPosition(), indexed.getOwner(), now));
+
+    Inventory inventory = getDeathBarrel(barrel.getBlock()).getInventory();
+    ItemStack[] contents = inventory.getContents();
+    int count = 0;
+    for (int slot = 0; slot < contents.length && count < drops.size(); slot++) {
+      if (contents[slot] == null) {
+        contents[slot] = drops.get(count++);
       }
-      location.setY(location.getBlockY() + 1);
     }
+    inventory.setContents(contents);
 
-    boolean created = createDeathBarrels(player, event.getDrops(), location);
+    List<ItemStack> filled = drops.subList(0, count);
+    stored.addAll(filled);
+    filled.clear();
+    return true;
+  }
 
-    player.sendMessage(Util.fillArgs(getConfig().getString("messages.deathLocation"),
-                       String.valueOf(location.getBlockX()),
-                       String.valueOf(location.getBlockY()),
-                       String.valueOf(location.getBlockZ())));
-    if (created) {
-      player.sendMessage(Util.fillArgs(getConfig().getString("messages.barrelCreated")));
+  /**
+   * Store the drops of a death taken from the {@link DeathQueue}. Items which
+   * could not be stored, e.g. because the player went offline and barrel
+   * placement can't be checked for them, are dropped at the death location.
+   *
+   * @param playerId      - UUID of the player who died.
+   * @param deathLocation - Where the player died.
+   * @param drops         - Death drops of player.
+   */
+  void storeQueuedDeath(UUID playerId, Location deathLocation, List<ItemStack> drops) {
+    Player player = getServer().getPlayer(playerId);
+    if (player != null) {
+      storeDeathBarrels(player, deathLocation, drops);
+    }
+    for (ItemStack item : drops) {
+      if (item != null) {
+        deathLocation.getWorld().dropItemNaturally(deathLocation, item);
+      }
     }
   }
 
@@ -272,26 +915,47 @@ public final class DeathBarrel extends JavaPlugin implements Listener {
    */
   @EventHandler(ignoreCancelled = true)
   public void onBlockBreakEvent(BlockBreakEvent event) {
-    Block block = event.getBlock();
+    long start = stats.start();
+    try {
+      Barrel barrel = getDeathBarrel(event.getBlock());
+      if (barrel == null) {
+        return;
+      }
 
-    if (!isDeathBarrel(block)) {
-      return;
-    }
+      Player player = event.getPlayer();
 
-    Barrel barrel = (Barrel) block.getState();
-    Player player = event.getPlayer();
+      if (settings.protectFromOtherPlayers && player != null
+          && !accessProtectedPermission.hasPermission(player) && !isOwner(player, barrel)) {
+        event.setCancelled(true);
+        player.sendMessage(settings.barrelProtectedBreakMessage);
+        return;
+      }
 
-    if (config.getBoolean("protectFromOtherPlayers") && player != null
-        && !player.hasPermission("deathbarrel.accessprotected") && !isOwner(player, barrel)) {
-      event.setCancelled(true);
-      player.sendMessage(config.getString("messages.barrelProtectedBreak"));
-      return;
+      // We allow the barrel to be broken, but don't drop the actual barrel
+      // item. Otherwise players can create unlimited barrels by dying
+      // repeatedly.
+      event.setDropItems(false); // Only cancels container item drop
+    } finally {
+      stats.record(Stats.Handler.BLOCK_BREAK, start);
     }
+  }
 
-    // We allow the barrel to be broken, but don't drop the actual barrel
-    // item. Otherwise players can create unlimited barrels by dying
-    // repeatedly.
-    event.setDropItems(false); // Only cancels container item drop
+  /**
+   * Remove broken barrels from the index. Runs on monitor priority so barrels
+   * stay indexed if another plugin cancels the break.
+   */
+  @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+  public void onBlockBrokenMonitor(BlockBreakEvent event) {
+    long start = stats.start();
+    try {
+      Block block = event.getBlock();
+      if (block.getType() != Material.BARREL) {
+        return;
+      }
+      barrelIndex.remove(BarrelPosition.of(block));
+    } finally {
+      stats.record(Stats.Handler.BLOCK_BROKEN_MONITOR, start);
+    }
   }
 
   /**
@@ -299,12 +963,11 @@ public final class DeathBarrel extends JavaPlugin implements Listener {
    */
   @EventHandler(ignoreCancelled = true)
   public void onExplode(EntityExplodeEvent e) {
-    /* Clone the list */
-    List<Block> blocks = new ArrayList<>(e.blockList());
-    for (Block block : blocks) {
-      if (isDeathBarrel(block)) {
-        e.blockList().remove(block);
-      }
+    long start = stats.start();
+    try {
+      removeDeathBarrels(e.blockList());
+    } finally {
+      stats.record(Stats.Handler.ENTITY_EXPLODE, start);
     }
   }
 
@@ -313,42 +976,59 @@ public final class DeathBarrel extends JavaPlugin implements Listener {
    */
   @EventHandler(ignoreCancelled = true)
   public void onExplode(BlockExplodeEvent e) {
-    /* Clone the list */
-    List<Block> blocks = new ArrayList<>(e.blockList());
-    for (Block block : blocks) {
-      if (isDeathBarrel(block)) {
-        e.blockList().remove(block);
-      }
+    long start = stats.start();
+    try {
+      removeDeathBarrels(e.blockList());
+    } finally {
+      stats.record(Stats.Handler.BLOCK_EXPLODE, start);
     }
   }
 
+  /**
+   * Remove all DeathBarrels from an explosion block list in a single pass.
+   *
+   * @param blocks - Blocks affected by the explosion.
+   */
+  private void removeDeathBarrels(List<Block> blocks) {
+    blocks.removeIf(this::checkBlock);
+  }
+
   /**
    * If protection is enabled, protect barrel inventories from unauthorized
    * players.
    */
   @EventHandler(ignoreCancelled = true)
   public void onInventoryOpen(InventoryOpenEvent event) {
-    // This event handler is only used for the barrel owner check.
-    if (!config.getBoolean("protectFromOtherPlayers")) {
-      return;
-    }
+    long start = stats.start();
+    try {
+      // This event handler is only used for the barrel owner check.
+      if (!settings.protectFromOtherPlayers) {
+        return;
+      }
 
-    InventoryHolder inventoryHolder = event.getInventory().getHolder();
+      // Only barrels can be death barrels, skip looking up the holder of others.
+      if (event.getInventory().getType() != InventoryType.BARREL) {
+        return;
+      }
+      InventoryHolder inventoryHolder = getHolder(event.getInventory());
 
-    // Opening inventory is not a death barrel
-    if (!isDeathBarrel(inventoryHolder)) {
-      return;
-    }
+      // Opening inventory is not a death barrel
+      if (!checkHolder(inventoryHolder)) {
+        return;
+      }
 
-    Barrel barrel = (Barrel) inventoryHolder;
-    Player player = (Player) event.getPlayer();
+      Barrel barrel = (Barrel) inventoryHolder;
+      Player player = (Player) event.getPlayer();
 
-    if (!player.hasPermission("deathbarrel.accessprotected") && !isOwner(player, barrel)) {
-      event.setCancelled(true);
-      player.sendMessage(config.getString("messages.barrelProtectedOpen"));
-      return;
-    }
+      if (!accessProtectedPermission.hasPermission(player) && !isOwner(player, barrel)) {
+        event.setCancelled(true);
+        player.sendMessage(settings.barrelProtectedOpenMessage);
+        return;
+      }
 
+    } finally {
+      stats.record(Stats.Handler.INVENTORY_OPEN, start);
+    }
   }
 
   /**
@@ -356,27 +1036,61 @@ public final class DeathBarrel extends JavaPlugin implements Listener {
    */
   @EventHandler(ignoreCancelled = true)
   public void onInventoryClose(InventoryCloseEvent event) {
-    // Feature disabled via config
-    if (!config.getBoolean("removeOnEmpty")) {
-      return;
-    }
+    long start = stats.start();
+    try {
+      Inventory inventory = event.getInventory();
+      VirtualBarrel virtualBarrel = virtualStore.getBarrel(inventory);
+      if (virtualBarrel != null) {
+        // Copy the contents back on the next tick, when the inventory is no
+        // longer being closed, and remove the barrel if it has been emptied.
+        taskScheduler.runFor(event.getPlayer(), () -> {
+          virtualStore.sync(virtualBarrel);
+          if (settings.removeOnEmpty && virtualBarrel.isEmpty()) {
+            virtualStore.remove(virtualBarrel);
+            stats.barrelsEmptied.incrementAndGet();
+          }
+          // Forget the inventory if the barrel was removed while open.
+          virtualStore.release(virtualBarrel);
+        });
+        return;
+      }
 
-    Inventory inventory = event.getInventory();
-    InventoryHolder inventoryHolder = event.getInventory().getHolder();
+      // Feature disabled via config
+      if (!settings.removeOnEmpty) {
+        return;
+      }
 
-    // Closing inventory is not a death barrel
-    if (!isDeathBarrel(inventoryHolder)) {
-      return;
-    }
+      // Cheap checks first, this runs for every inventory closed on the server.
+      if (inventory.getType() != InventoryType.BARREL) {
+        return;
+      }
 
-    // Death barrel is not empty
-    if (!inventory.isEmpty()) {
-      return;
-    }
+      // Death barrel is not empty
+      if (!inventory.isEmpty()) {
+        return;
+      }
 
-    // Remove empty death barrel
-    Barrel deathBarrel = (Barrel) inventoryHolder;
-    deathBarrel.getBlock().setType(Material.AIR);
+      // Closing inventory is not a death barrel. Reads the barrel data rather
+      // than trusting the index, so barrels missing from it are removed too.
+      // Only empty barrels get here.
+      if (!checkHolder(getHolder(inventory))) {
+        return;
+      }
+
+      // Remove empty death barrel at the end of the tick.
+      BarrelPosition position = BarrelPosition.of(inventory.getLocation());
+      if (taskScheduler.isFolia()) {
+        // Regions tick independently, there is no common end of tick.
+        taskScheduler.runAt(inventory.getLocation(), () -> removeEmptiedBarrel(position));
+        return;
+      }
+      if (emptiedBarrels.isEmpty()) {
+        taskScheduler.run(this::removeEmptiedBarrels);
+      }
+      emptiedBarrels.add(position);
+    } finally {
+      stats.record(Stats.Handler.INVENTORY_CLOSE, start);
+    }
   }
 
   /**
@@ -384,9 +1098,13 @@ public final class DeathBarrel extends JavaPlugin implements Listener {
    */
   @EventHandler(ignoreCancelled = true)
   public void onInventoryMoveItem(InventoryMoveItemEvent event) {
-    if (isDeathBarrel(event.getDestination().getHolder())
-        || isDeathBarrel(event.getSource().getHolder())) {
-      event.setCancelled(true);
+    long start = stats.start();
+    try {
+      if (isDeathBarrel(event.getDestination()) || isDeathBarrel(event.getSource())) {
+        event.setCancelled(true);
+      }
+    } finally {
+      stats.record(Stats.Handler.INVENTORY_MOVE_ITEM, start);
     }
   }
 
@@ -395,69 +1113,41 @@ public final class DeathBarrel extends JavaPlugin implements Listener {
    */
   @EventHandler(ignoreCancelled = true)
   public void onInventoryClickEvent(InventoryClickEvent event) {
-    // We only care about player interactions.
-    if (!(event.getWhoClicked() instanceof Player)) {
-      return;
-    }
-
-    // Check if the player is interacting with a DeathBarrel.
-    Inventory inventory = event.getInventory();
-    if (inventory == null || event.getSlot() < 0) {
-      return;
-    }
-
-    InventoryHolder holder = null;
+    long start = stats.start();
     try {
-      holder = inventory.getHolder();
-    } catch (AbstractMethodError e) {
-      e.printStackTrace();
-      return;
-    }
-
-    if (!isDeathBarrel(holder)) {
-      return;
-    }
-
-    // Next check the kind of interaction with the inventory. We want to allow
-    // players to take
-    // items from the barrel, but not insert any.
-    InventoryAction action = event.getAction();
-
-    // Always allow the player to pick up items.
-    if (action.equals(InventoryAction.PICKUP_ALL)
-        || action.equals(InventoryAction.PICKUP_SOME)
-        || action.equals(InventoryAction.PICKUP_ONE)
-        || action.equals(InventoryAction.PICKUP_HALF)
-        || action.equals(InventoryAction.CLONE_STACK)
-        || action.equals(InventoryAction.COLLECT_TO_CURSOR)
-        || action.equals(InventoryAction.HOTBAR_MOVE_AND_READD)
-        || action.equals(InventoryAction.NOTHING)) {
-      return;
-    }
+      // We only care about player interactions.
+      if (!(event.getWhoClicked() instanceof Player)) {
+        return;
+      }
 
-    boolean isContainerSlot = event.getSlot() == event.getRawSlot();
+      // Check if the player is interacting with a DeathBarrel. Only barrel and
+      // virtual barrel inventories can be, rejected without a holder snapshot.
+      Inventory inventory = event.getInventory();
+      if (inventory == null || event.getSlot() < 0) {
+        return;
+      }
 
-    // Allow moving items out of the barrel by shift clicking.
-    if (action.equals(InventoryAction.MOVE_TO_OTHER_INVENTORY) && isContainerSlot) {
-      return;
-    }
+      VirtualBarrel virtualBarrel = virtualStore.getBarrel(inventory);
+      if (virtualBarrel == null && !isDeathBarrel(inventory)) {
+        return;
+      }
+      if (virtualBarrel != null) {
+        // Items may be taken out. Copy the contents back once the click has
+        // been applied, on the thread owning the player.
+        taskScheduler.runFor(event.getWhoClicked(), () -> virtualStore.sync(virtualBarrel));
+      }
 
-    // Allow swap with cursor outside of the barrel.
-    if ((action.equals(InventoryAction.SWAP_WITH_CURSOR)
-        || action.equals(InventoryAction.HOTBAR_SWAP))
-        && !isContainerSlot) {
-      return;
-    }
+      // Next check the kind of interaction with the inventory. By default
+      // players may take items from the barrel, but not insert any.
+      boolean isContainerSlot = event.getRawSlot() < inventory.getSize();
+      if (settings.clickPolicy.isAllowed(event.getAction(), isContainerSlot)) {
+        return;
+      }
 
-    // Allow placing items outside of the container.
-    boolean isItemPlace = action.equals(InventoryAction.PLACE_ALL)
-        || action.equals(InventoryAction.PLACE_ONE)
-        || action.equals(InventoryAction.PLACE_SOME);
-    if (isItemPlace && !isContainerSlot) {
-      return;
+      event.setCancelled(true);
+    } finally {
+      stats.record(Stats.Handler.INVENTORY_CLICK, start);
     }
-
-    event.setCancelled(true);
   }
 
   /**
@@ -465,53 +1155,96 @@ public final class DeathBarrel extends JavaPlugin implements Listener {
    */
   @EventHandler(ignoreCancelled = true)
   public void onInventoryDragEvent(InventoryDragEvent event) {
-    // We only care about player interactions.
-    if (!(event.getWhoClicked() instanceof Player)) {
-      return;
-    }
+    long start = stats.start();
+    try {
+      // We only care about player interactions.
+      if (!(event.getWhoClicked() instanceof Player)) {
+        return;
+      }
 
-    if (!isDeathBarrel(event.getInventory().getHolder())) {
-      return;
-    }
+      Inventory inventory = event.getInventory();
+      if (virtualStore.getBarrel(inventory) == null && !isDeathBarrel(inventory)) {
+        return;
+      }
 
-    // Allow drag events in the player inventory.
-    for (int slot : event.getRawSlots()) {
-      if (slot > barrelCapacity - 1) {
+      // By default drag events are only allowed in the player inventory.
+      if (settings.clickPolicy.isDragAllowed(event.getRawSlots(), inventory.getSize())) {
         return;
       }
+
+      event.setCancelled(true);
+    } finally {
+      stats.record(Stats.Handler.INVENTORY_DRAG, start);
     }
+  }
 
-    event.setCancelled(true);
+  /**
+   * Remove the barrels queued by {@link #onInventoryClose}. Barrels which have
+   * been refilled or removed in the meantime are skipped.
+   */
+  private void removeEmptiedBarrels() {
+    for (BarrelPosition position : emptiedBarrels) {
+      removeEmptiedBarrel(position);
+    }
+    emptiedBarrels.clear();
   }
 
-  void cleanupBarrelIfExpired(Block block, long maxBarrelAge) {
-    cleanupBarrelIfExpired(block.getState(), maxBarrelAge);
+  private void removeEmptiedBarrel(BarrelPosition position) {
+    World world = getServer().getWorld(position.getWorldId());
+    if (world == null || !world.isChunkLoaded(position.getChunkX(), position.getChunkZ())) {
+      return;
+    }
+    Barrel barrel = getDeathBarrel(position.getBlock(world));
+    if (barrel == null || !barrel.getInventory().isEmpty()) {
+      return;
+    }
+    barrel.getBlock().setType(Material.AIR, !settings.removeOnEmptyWithoutPhysics);
+    // The expiry scheduler skips barrels which are no longer indexed.
+    barrelIndex.remove(position);
+    stats.barrelsEmptied.incrementAndGet();
   }
 
+  /**
+   * Remove a barrel regardless of its age, for purges by staff. Unlike expiry
+   * this includes barrels without a creation time.
+   *
+   * @param block - Block of the barrel.
+   * @return true if a death barrel was removed.
+   */
+  boolean purgeBarrel(Block block) {
+    BlockState state = getState(block);
+    barrelIndex.remove(BarrelPosition.of(block));
+    if (!isDeathBarrel(state)) {
+      return false;
+    }
+    ((Barrel) state).getInventory().clear();
+    block.setType(Material.AIR);
+    return true;
+  }
 
-  private void cleanupBarrelIfExpired(BlockState state, long maxBarrelAge) {
+  void cleanupBarrelIfExpired(Block block, long maxBarrelAge) {
+    BlockState state = getState(block);
     if (!isDeathBarrel(state)) {
+      // The barrel was removed without us noticing, e.g. by another plugin.
+      barrelIndex.remove(BarrelPosition.of(block));
       return;
     }
-    Barrel barrel = (Barrel) state;
-    cleanupBarrelIfExpired(barrel, maxBarrelAge);
+    cleanupBarrelIfExpired((Barrel) state, maxBarrelAge);
   }
 
 
   private void cleanupBarrelIfExpired(Barrel barrel, long maxBarrelAge) {
-    if (!isDeathBarrel(barrel)) {
+    DeathBarrelMeta meta = getMeta(barrel);
+    if (meta == null) {
       return;
     }
 
     // Check if barrel has expired and is due for removal.
-    PersistentDataContainer data = barrel.getPersistentDataContainer();
-    NamespacedKey key = new NamespacedKey(this, "createdAt");
-    Long createdAtUnix = data.get(key, PersistentDataType.LONG);
-    if (createdAtUnix == null) {
+    if (meta.getCreatedAt() < 0) {
       // Old DeathBarrels may not have createdAt, skip them.
       return;
     }
-    Instant createdAt = Instant.ofEpochSecond(createdAtUnix);
+    Instant createdAt = Instant.ofEpochSecond(meta.getCreatedAt());
     if (createdAt.plusSeconds(maxBarrelAge).compareTo(Instant.now()) > 0) {
       // Barrel has not expired.
       return;
@@ -521,6 +1254,65 @@ public final class DeathBarrel extends JavaPlugin implements Listener {
     this.getLogger().info("Removing expired DeathBarrel at " + barrel.getLocation());
     barrel.getInventory().clear();
     barrel.getBlock().setType(Material.AIR);
+    barrelIndex.remove(BarrelPosition.of(barrel.getBlock()));
+    stats.barrelsExpired.incrementAndGet();
+  }
+
+  /**
+   * Add a death barrel which is missing from the index, e.g. because it was
+   * created before the barrel index existed, to the index.
+   *
+   * @param barrel - Death barrel to index.
+   */
+  private void indexLegacyBarrel(Barrel barrel) {
+    BarrelPosition position = BarrelPosition.of(barrel.getBlock());
+    if (barrelIndex.contains(position)) {
+      return;
+    }
+    DeathBarrelMeta meta = getMeta(barrel);
+    if (meta == null) {
+      return;
+    }
+    addToIndex(new IndexedBarrel(position, meta.getOwner(), meta.getCreatedAt()));
+  }
+
+  /**
+   * Add a barrel to the index and, if barrel cleanup is enabled, schedule it
+   * for removal after the configured timespan.
+   *
+   * @param barrel - Barrel to add.
+   */
+  private void addToIndex(IndexedBarrel barrel) {
+    barrelIndex.add(barrel);
+    if (cleanupTask != null) {
+      cleanupTask.schedule(barrel);
+    }
+  }
+
+  /**
+   * Drop cached permissions of players who leave.
+   */
+  @EventHandler
+  public void onPlayerQuit(PlayerQuitEvent event) {
+    long start = stats.start();
+    try {
+      accessProtectedPermission.invalidate(event.getPlayer().getUniqueId());
+    } finally {
+      stats.record(Stats.Handler.PLAYER_QUIT, start);
+    }
+  }
+
+  /**
+   * Drop cached permissions on world change, permissions may be per world.
+   */
+  @EventHandler
+  public void onPlayerChangedWorld(PlayerChangedWorldEvent event) {
+    long start = stats.start();
+    try {
+      accessProtectedPermission.invalidate(event.getPlayer().getUniqueId());
+    } finally {
+      stats.record(Stats.Handler.PLAYER_CHANGED_WORLD, start);
+    }
   }
 
   /**
@@ -528,18 +1320,133 @@ public final class DeathBarrel extends JavaPlugin implements Listener {
    */
   @EventHandler(ignoreCancelled = true)
   public void onChunkLoad(ChunkLoadEvent event) {
-    long maxBarrelAge = config.getLong("removeBarrelsAfterSeconds");
+    long start = stats.start();
+    try {
+      // Newly generated chunks can't contain any DeathBarrels.
+      if (event.isNewChunk()) {
+        if (settings.scanChunksForUnindexedBarrels) {
+          markScanned(event.getChunk());
+        }
+        return;
+      }
+
+      checkChunk(event.getChunk());
+    } finally {
+      stats.record(Stats.Handler.CHUNK_LOAD, start);
+    }
+  }
+
+  /**
+   * Remove expired barrels in a loaded chunk and, if enabled, index legacy
+   * barrels found in it.
+   *
+   * @param chunk - Chunk to check.
+   */
+  void checkChunk(Chunk chunk) {
+    long maxBarrelAge = settings.removeBarrelsAfterSeconds;
+
+    if (settings.scanChunksForUnindexedBarrels) {
+      scanChunk(chunk);
+    }
+
     // Feature disabled via config
     if (maxBarrelAge <= 0) {
       return;
     }
 
-    // Newly generated chunks can't contain any DeathBarrels.
-    if (event.isNewChunk()) {
+    Collection<IndexedBarrel> barrels = barrelIndex.getInChunk(chunk.getWorld().getUID(),
+        chunk.getX(), chunk.getZ());
+    if (barrels.isEmpty()) {
       return;
     }
-    for (BlockState state : event.getChunk().getTileEntities()) {
-      cleanupBarrelIfExpired(state, maxBarrelAge);
+    for (IndexedBarrel barrel : barrels) {
+      cleanupBarrelIfExpired(barrel.getPosition().getBlock(chunk.getWorld()), maxBarrelAge);
+    }
+  }
+
+  /**
+   * Index the death barrels of a chunk which are missing from the index, e.g.
+   * because they were created before it existed. This is expensive since it
+   * has to check every tile entity of the chunk, so the chunk records the
+   * scan generation of the index it has been scanned for and is skipped on
+   * later loads.
+   *
+   * @param chunk - Chunk to scan.
+   */
+  private void scanChunk(Chunk chunk) {
+    Integer scanned = chunk.getPersistentDataContainer().get(keys.scanGeneration,
+        PersistentDataType.INTEGER);
+    if (scanned != null && scanned == barrelIndex.getScanGeneration()) {
+      return;
+    }
+    for (BlockState state : getTileEntities(chunk)) {
+      if (state instanceof Barrel && isDeathBarrel((Barrel) state)) {
+        indexLegacyBarrel((Barrel) state);
+      }
+    }
+    markScanned(chunk);
+  }
+
+  private static Method findGetTileEntities() {
+    try {
+      return Chunk.class.getMethod("getTileEntities", boolean.class);
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Get the tile entities of a chunk for reading. On Paper this accesses the
+   * tile entities directly instead of copying them into snapshots, on Spigot
+   * it falls back to snapshots.
+   *
+   * @param chunk - Chunk to get the tile entities of
+   * @return The tile entity states
+   */
+  private static BlockState[] getTileEntities(Chunk chunk) {
+    if (GET_TILE_ENTITIES != null) {
+      try {
+        return (BlockState[]) GET_TILE_ENTITIES.invoke(chunk, false);
+      } catch (ReflectiveOperationException e) {
+        // Fall back to snapshots below.
+      }
     }
+    return chunk.getTileEntities();
+  }
+
+  private void markScanned(Chunk chunk) {
+    chunk.getPersistentDataContainer().set(keys.scanGeneration, PersistentDataType.INTEGER,
+        barrelIndex.getScanGeneration());
+  }
+
+  BarrelCleanupTask getCleanupTask() {
+    return cleanupTask;
+  }
+
+  TaskScheduler getTaskScheduler() {
+    return taskScheduler;
+  }
+
+  DeathQueue getDeathQueue() {
+    return deathQueue;
+  }
+
+  Stats getStats() {
+    return stats;
+  }
+
+  BarrelIndex getBarrelIndex() {
+    return barrelIndex;
+  }
+
+  Settings getSettings() {
+    return settings;
+  }
+
+  /**
+   * @return The death journal or null if it is disabled.
+   */
+  DeathJournal getJournal() {
+    return journal;
   }
 }
@@ -0,0 +1,313 @@
+package com.tallcraft.deathbarrel;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import org.bukkit.OfflinePlayer;
+import org.bukkit.World;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabExecutor;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * Handles the /deathbarrel admin command.
+ */
+public class DeathBarrelCommand implements TabExecutor {
+  private static final int HISTORY_LIMIT = 10;
+  private static final int PAGE_SIZE = 10;
+  private static final List<String> SUBCOMMANDS = Arrays.asList("count", "history", "list",
+      "open", "purge", "reload", "restore", "stats");
+
+  private final DeathBarrel plugin;
+
+  DeathBarrelCommand(DeathBarrel plugin) {
+    this.plugin = plugin;
+  }
+
+  @Override
+  public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+    if (args.length == 0) {
+      return false;
+    }
+
+    String subcommand = args[0].toLowerCase();
+    if (!subcommand.equals("open") && !sender.hasPermission("deathbarrel.admin")) {
+      sender.sendMessage("You don't have permission to use this command.");
+      return true;
+    }
+
+    switch (subcommand) {
+      case "open":
+        open(sender, args);
+        return true;
+      case "history":
+        history(sender, args);
+        return true;
+      case "restore":
+        restore(sender, args);
+        return true;
+      case "reload":
+        plugin.reload();
+        sender.sendMessage("DeathBarrel config reloaded.");
+        return true;
+      case "stats":
+        sendStats(sender);
+        return true;
+      case "count":
+      case "list":
+      case "purge":
+        queryBarrels(sender, subcommand, Arrays.copyOfRange(args, 1, args.length));
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  @Override
+  public List<String> onTabComplete(CommandSender sender, Command command, String alias,
+                                    String[] args) {
+    if (args.length != 1) {
+      return Collections.emptyList();
+    }
+    List<String> completions = new ArrayList<>();
+    for (String subcommand : SUBCOMMANDS) {
+      if (subcommand.startsWith(args[0].toLowerCase())) {
+        completions.add(subcommand);
+      }
+    }
+    return completions;
+  }
+
+  private void open(CommandSender sender, String[] args) {
+    if (!(sender instanceof Player)) {
+      sender.sendMessage("Only players can open death barrels.");
+      return;
+    }
+    Player player = (Player) sender;
+    if (!player.hasPermission("deathbarrel.use")) {
+      player.sendMessage("You don't have permission to use this command.");
+      return;
+    }
+
+    int number = 1;
+    if (args.length > 1) {
+      try {
+        number = Integer.parseInt(args[1]);
+      } catch (NumberFormatException e) {
+        player.sendMessage("Invalid barrel number: " + args[1]);
+        return;
+      }
+    }
+    if (!plugin.openVirtualBarrel(player, number)) {
+      player.sendMessage(plugin.getSettings().noVirtualBarrelMessage);
+    }
+  }
+
+  private void history(CommandSender sender, String[] args) {
+    DeathJournal journal = plugin.getJournal();
+    if (journal == null) {
+      sender.sendMessage("The death journal is disabled.");
+      return;
+    }
+    if (args.length < 2) {
+      sender.sendMessage("Usage: /deathbarrel history <player>");
+      return;
+    }
+
+    // Player lookup and journal reads may block, keep them off the main thread.
+    String name = args[1];
+    TaskScheduler scheduler = plugin.getTaskScheduler();
+    scheduler.runAsync(() -> {
+      OfflinePlayer player = plugin.getServer().getOfflinePlayer(name);
+      List<DeathJournal.Summary> history = journal.readHistory(player.getUniqueId(),
+                                                                HISTORY_LIMIT);
+      scheduler.runFor(sender, () -> {
+        if (history.isEmpty()) {
+          sender.sendMessage("No recorded deaths for " + name + ".");
+          return;
+        }
+        sender.sendMessage("Recent deaths of " + name + ":");
+        for (DeathJournal.Summary death : history) {
+          sender.sendMessage(String.format("%s: %s in %s at [%d, %d, %d], %d items", death.id,
+              Instant.ofEpochSecond(death.createdAt), death.world, death.x, death.y, death.z,
+              death.itemCount));
+        }
+      });
+    });
+  }
+
+  private void restore(CommandSender sender, String[] args) {
+    DeathJournal journal = plugin.getJournal();
+    if (journal == null) {
+      sender.sendMessage("The death journal is disabled.");
+      return;
+    }
+    if (!(sender instanceof Player)) {
+      sender.sendMessage("Only players can restore deaths.");
+      return;
+    }
+    if (args.length < 2) {
+      sender.sendMessage("Usage: /deathbarrel restore <id> [force]");
+      return;
+    }
+
+    Player player = (Player) sender;
+    String id = args[1];
+    boolean force = args.length > 2 && args[2].equalsIgnoreCase("force");
+    TaskScheduler scheduler = plugin.getTaskScheduler();
+    scheduler.runAsync(() -> {
+      DeathJournal.StoredDeath death = journal.readDeath(id);
+      scheduler.runFor(sender, () -> {
+        if (death == null) {
+          player.sendMessage("No recorded death with id " + id + ".");
+          return;
+        }
+        // Restoring a death whose items are still around duplicates them.
+        if (!force && plugin.hasBarrel(death.summary)) {
+          player.sendMessage(String.format("Death %s still has a barrel in %s at [%d, %d, %d]. "
+              + "Use /deathbarrel restore %s force to restore it anyway.", id,
+              death.summary.world, death.summary.x, death.summary.y, death.summary.z, id));
+          return;
+        }
+        List<ItemStack> items;
+        try {
+          items = journal.decodeItems(death.items);
+        } catch (IOException e) {
+          player.sendMessage("Could not read the items of death " + id + ".");
+          return;
+        }
+        boolean firstRestore = death.lastRestore == null && journal.claimRestore(id);
+        if (!firstRestore && !force) {
+          player.sendMessage("Death " + id + " was already restored"
+              + (death.lastRestore == null ? "" : " at "
+                 + Instant.ofEpochSecond(death.lastRestore.restoredAt))
+              + ". Use /deathbarrel restore " + id + " force to restore it again.");
+          return;
+        }
+        // Give the items to the staff member, drop what doesn't fit.
+        Map<Integer, ItemStack> overflow = player.getInventory()
+            .addItem(items.toArray(new ItemStack[0]));
+        for (ItemStack item : overflow.values()) {
+          player.getWorld().dropItem(player.getLocation(), item);
+        }
+        journal.recordRestore(id, player.getUniqueId());
+        player.sendMessage("Restored " + items.size() + " items of death " + id + ".");
+      });
+    });
+  }
+
+  /**
+   * Count, list or purge indexed barrels matching a query. The index is
+   * filtered asynchronously and purges are handed to the cleanup scheduler,
+   * which removes the barrels in throttled batches.
+   */
+  private void queryBarrels(CommandSender sender, String action, String[] args) {
+    BarrelQuery query = BarrelQuery.parse(plugin.getServer(), sender, args);
+    if (query == null) {
+      return;
+    }
+    if (action.equals("purge") && !query.hasFilters() && !query.isConfirmed()) {
+      sender.sendMessage("This would purge all death barrels. Add a filter, or add confirm"
+          + " to purge them all.");
+      return;
+    }
+
+    // Filter a snapshot of the index off the main thread, owner lookups may block.
+    Collection<IndexedBarrel> snapshot = plugin.getBarrelIndex().getAll();
+    TaskScheduler scheduler = plugin.getTaskScheduler();
+    scheduler.runAsync(() -> {
+      query.resolveOwner(plugin.getServer());
+      long now = Instant.now().getEpochSecond();
+      List<IndexedBarrel> matches = new ArrayList<>();
+      for (IndexedBarrel barrel : snapshot) {
+        if (query.matches(barrel, now)) {
+          matches.add(barrel);
+        }
+      }
+      matches.sort(Comparator.comparingLong(IndexedBarrel::getCreatedAt));
+
+      scheduler.runFor(sender, () -> {
+        switch (action) {
+          case "count":
+            sender.sendMessage("Matching death barrels: " + matches.size());
+            break;
+          case "list":
+            sendPage(sender, matches, query.getPage(), now);
+            break;
+          default:
+            purge(sender, matches);
+        }
+      });
+    });
+  }
+
+  private void sendPage(CommandSender sender, List<IndexedBarrel> barrels, int page, long now) {
+    int pages = Math.max(1, (barrels.size() + PAGE_SIZE - 1) / PAGE_SIZE);
+    if (page > pages) {
+      sender.sendMessage("There are only " + pages + " pages.");
+      return;
+    }
+    sender.sendMessage("Death barrels (" + barrels.size() + "), page " + page + "/" + pages + ":");
+    int end = Math.min(barrels.size(), page * PAGE_SIZE);
+    for (IndexedBarrel barrel : barrels.subList((page - 1) * PAGE_SIZE, end)) {
+      BarrelPosition position = barrel.getPosition();
+      World world = plugin.getServer().getWorld(position.getWorldId());
+      String owner = "unknown";
+      if (barrel.getOwner() != null) {
+        String name = plugin.getServer().getOfflinePlayer(barrel.getOwner()).getName();
+        owner = name == null ? barrel.getOwner().toString() : name;
+      }
+      String age = barrel.getCreatedAt() < 0 ? "unknown age"
+          : Util.formatDuration(now - barrel.getCreatedAt()) + " old";
+      sender.sendMessage(String.format("%s %s, owner %s, %s",
+          world == null ? position.getWorldId() : world.getName(), position, owner, age));
+    }
+  }
+
+  private void purge(CommandSender sender, List<IndexedBarrel> barrels) {
+    List<BarrelPosition> positions = new ArrayList<>(barrels.size());
+    for (IndexedBarrel barrel : barrels) {
+      positions.add(barrel.getPosition());
+    }
+    // The cleanup scheduler runs on the main thread, or the global region on Folia.
+    plugin.getTaskScheduler().run(() -> plugin.getCleanupTask().purge(positions));
+    sender.sendMessage("Purging " + positions.size() + " death barrels.");
+  }
+
+  private void sendStats(CommandSender sender) {
+    Stats stats = plugin.getStats();
+    sender.sendMessage("DeathBarrel stats:");
+    sender.sendMessage("Barrels created: " + stats.barrelsCreated.get()
+        + ", expired: " + stats.barrelsExpired.get()
+        + ", emptied: " + stats.barrelsEmptied.get());
+    sender.sendMessage("Indexed barrels: " + plugin.getBarrelIndex().size()
+        + ", queued deaths: " + plugin.getDeathQueue().size()
+        + ", pending cleanups: " + plugin.getCleanupTask().getPendingCount());
+    Runtime runtime = Runtime.getRuntime();
+    sender.sendMessage(String.format("Heap used: %d MiB of %d MiB",
+        (runtime.totalMemory() - runtime.freeMemory()) >> 20, runtime.maxMemory() >> 20));
+
+    if (!stats.isTimingsEnabled()) {
+      sender.sendMessage("Timings are disabled, see recordTimings in the config.");
+    }
+    for (Stats.Handler handler : Stats.Handler.values()) {
+      Stats.Timer timer = stats.getTimer(handler);
+      if (timer.getCount() == 0) {
+        continue;
+      }
+      sender.sendMessage(String.format("%s: %d calls, total %.2f ms, avg %.1f us, p99 %.1f us",
+          handler.getDisplayName(), timer.getCount(), timer.getTotalNanos() / 1e6,
+          timer.getTotalNanos() / (double) timer.getCount() / 1e3,
+          timer.getPercentileNanos(99) / 1e3));
+    }
+  }
+}
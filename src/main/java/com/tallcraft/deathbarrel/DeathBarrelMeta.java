@@ -0,0 +1,108 @@
+package com.tallcraft.deathbarrel;
+
+import java.util.UUID;
+
+import org.bukkit.persistence.PersistentDataContainer;
+import org.bukkit.persistence.PersistentDataType;
+
+/**
+ * Immutable view of the metadata of a death barrel, decoded from its
+ * persistent data container in one go.
+ */
+public final class DeathBarrelMeta {
+  private final boolean hasOwner;
+  private final long ownerMostSigBits;
+  private final long ownerLeastSigBits;
+  private final long createdAt;
+
+  private DeathBarrelMeta(boolean hasOwner, long ownerMostSigBits, long ownerLeastSigBits,
+                          long createdAt) {
+    this.hasOwner = hasOwner;
+    this.ownerMostSigBits = ownerMostSigBits;
+    this.ownerLeastSigBits = ownerLeastSigBits;
+    this.createdAt = createdAt;
+  }
+
+  /**
+   * Read the metadata of a barrel.
+   *
+   * @param data - Persistent data container of the barrel.
+   * @param keys - Metadata keys.
+   * @return The metadata or null if the barrel is not a DeathBarrel.
+   */
+  static DeathBarrelMeta read(PersistentDataContainer data, BarrelKeys keys) {
+    if (!data.has(keys.isDeathBarrel, PersistentDataType.INTEGER)) {
+      return null;
+    }
+
+    Long createdAt = data.get(keys.createdAt, PersistentDataType.LONG);
+    long[] owner = readOwner(data, keys);
+    return new DeathBarrelMeta(owner != null, owner == null ? 0 : owner[0],
+        owner == null ? 0 : owner[1], createdAt == null ? -1 : createdAt);
+  }
+
+  /**
+   * Store the owner of a barrel as a binary UUID.
+   *
+   * @param data  - Persistent data container of the barrel.
+   * @param keys  - Metadata keys.
+   * @param owner - UUID of the player who died.
+   */
+  static void writeOwner(PersistentDataContainer data, BarrelKeys keys, UUID owner) {
+    data.set(keys.owner, PersistentDataType.LONG_ARRAY,
+             new long[] {owner.getMostSignificantBits(), owner.getLeastSignificantBits()});
+  }
+
+  /**
+   * Test if a player owns a barrel, without decoding the other metadata.
+   *
+   * @param data     - Persistent data container of the barrel.
+   * @param keys     - Metadata keys.
+   * @param playerId - UUID of the player.
+   * @return true if the player owns the barrel, false otherwise.
+   */
+  static boolean isOwner(PersistentDataContainer data, BarrelKeys keys, UUID playerId) {
+    long[] owner = readOwner(data, keys);
+    return owner != null && owner[0] == playerId.getMostSignificantBits()
+        && owner[1] == playerId.getLeastSignificantBits();
+  }
+
+  /**
+   * Read the owner as most and least significant bits. Barrels of older
+   * versions store the owner as a string, which is parsed as a fallback.
+   *
+   * @return The owner bits or null if the owner is unknown.
+   */
+  private static long[] readOwner(PersistentDataContainer data, BarrelKeys keys) {
+    long[] owner = data.get(keys.owner, PersistentDataType.LONG_ARRAY);
+    if (owner != null && owner.length == 2) {
+      return owner;
+    }
+
+    String legacyOwner = data.get(keys.ownerUuid, PersistentDataType.STRING);
+    if (legacyOwner == null) {
+      return null;
+    }
+    try {
+      UUID uuid = UUID.fromString(legacyOwner);
+      return new long[] {uuid.getMostSignificantBits(), uuid.getLeastSignificantBits()};
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /**
+   * @return UUID of the player who died or null if unknown.
+   */
+  UUID getOwner() {
+    return hasOwner ? new UUID(ownerMostSigBits, ownerLeastSigBits) : null;
+  }
+
+  /**
+   * @return Creation time as unix timestamp in seconds or -1 if unknown. Old
+   *         DeathBarrels may not have it.
+   */
+  long getCreatedAt() {
+    return createdAt;
+  }
+}
@@ -0,0 +1,455 @@
+package com.tallcraft.deathbarrel;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import org.bukkit.Location;
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * Append-only journal of death contents, owners and locations. Records are
+ * handed to a background thread through a bounded queue, so the main thread
+ * never waits for disk I/O. Records older than the retention period are
+ * dropped by periodic compaction.
+ *
+ * <p>Restores of a death are journaled as well, as a short line starting
+ * with the death id: {@code id;restoredAt;restorer}.
+ */
+public class DeathJournal {
+  private static final String SEPARATOR = ";";
+  private static final long COMPACTION_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+  private final DeathBarrel plugin;
+  private final File file;
+  private final long retentionSeconds;
+  private final BlockingQueue<Line> queue;
+  private final Thread writerThread;
+  private volatile boolean running = true;
+  // Deaths are recorded from region threads on Folia.
+  private final AtomicLong lastId = new AtomicLong();
+  // Deaths restored since start, including restores not written yet.
+  private final Set<String> restored = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Create the journal and start its writer thread.
+   *
+   * @param plugin           - Plugin instance.
+   * @param file             - Journal file.
+   * @param retentionSeconds - How long to keep records.
+   * @param queueSize        - Maximum number of records waiting to be written.
+   */
+  DeathJournal(DeathBarrel plugin, File file, long retentionSeconds, int queueSize) {
+    this.plugin = plugin;
+    this.file = file;
+    this.retentionSeconds = retentionSeconds;
+    this.queue = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+    this.writerThread = new Thread(this::writeLoop, "DeathBarrel-Journal");
+    this.writerThread.start();
+  }
+
+  /**
+   * Queue a death for writing. Items are copied, so the caller may keep using
+   * them. If the queue is full the record is dropped with a warning.
+   *
+   * @param owner    - UUID of the player who died.
+   * @param location - Location the drops were stored at.
+   * @param items    - Stored items. null entries are skipped.
+   */
+  void record(UUID owner, Location location, ItemStack[] items) {
+    List<ItemStack> copies = new ArrayList<>(items.length);
+    for (ItemStack item : items) {
+      if (item != null) {
+        copies.add(item.clone());
+      }
+    }
+    if (copies.isEmpty()) {
+      return;
+    }
+
+    Entry entry = new Entry(nextId(), Instant.now().getEpochSecond(), owner,
+        location.getWorld() == null ? "" : location.getWorld().getName(),
+        location.getBlockX(), location.getBlockY(), location.getBlockZ(), copies);
+    if (!queue.offer(entry)) {
+      plugin.getLogger().warning("Death journal queue is full, not recording death of " + owner);
+    }
+  }
+
+  /**
+   * Claim the first restore of a death. Only one caller gets true, even if
+   * several staff members restore the same death at once.
+   *
+   * @param id - Death id.
+   * @return true if the death was not restored since the journal was opened.
+   *         Earlier restores are reported by {@link #readDeath(String)}.
+   */
+  boolean claimRestore(String id) {
+    return restored.add(id);
+  }
+
+  /**
+   * Queue a restore of a death for writing, so it is refused after a restart
+   * too. If the queue is full the restore is only logged.
+   *
+   * @param id       - Death id.
+   * @param restorer - UUID of the staff member who restored the death.
+   */
+  void recordRestore(String id, UUID restorer) {
+    restored.add(id);
+    if (!queue.offer(new Restore(id, Instant.now().getEpochSecond(), restorer))) {
+      plugin.getLogger().warning("Death journal queue is full, not recording restore of death "
+                                 + id + " by " + restorer);
+    }
+  }
+
+  private String nextId() {
+    long now = System.currentTimeMillis();
+    return Long.toString(lastId.updateAndGet(last -> Math.max(now, last + 1)), 36);
+  }
+
+  /**
+   * Stop the writer thread after writing all queued records. Blocks until the
+   * thread has finished. The thread is not interrupted, since that would abort
+   * a write in progress and lose its batch. It notices the flag within a
+   * second, when its wait for new records times out.
+   */
+  void close() {
+    running = false;
+    try {
+      writerThread.join(TimeUnit.SECONDS.toMillis(10));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void writeLoop() {
+    long nextCompaction = System.currentTimeMillis();
+    List<Line> batch = new ArrayList<>();
+
+    while (running || !queue.isEmpty()) {
+      try {
+        if (System.currentTimeMillis() >= nextCompaction) {
+          compact();
+          nextCompaction = System.currentTimeMillis() + COMPACTION_INTERVAL_MILLIS;
+        }
+
+        Line first = queue.poll(1, TimeUnit.SECONDS);
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+        queue.drainTo(batch);
+        append(batch);
+        batch.clear();
+      } catch (InterruptedException e) {
+        // Interrupted by someone else, stop after writing what is left.
+        running = false;
+      }
+    }
+  }
+
+  private void append(List<Line> entries) {
+    if (entries.isEmpty()) {
+      return;
+    }
+    File parent = file.getParentFile();
+    if (parent != null) {
+      parent.mkdirs();
+    }
+    try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8,
+        StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+      boolean compress = plugin.getSettings().compressStoredItems;
+      for (Line entry : entries) {
+        writer.write(entry.serialize(compress));
+        writer.newLine();
+      }
+    } catch (IOException e) {
+      plugin.getLogger().log(Level.SEVERE, "Could not write death journal " + file, e);
+    }
+  }
+
+  /**
+   * Rewrite the journal without records older than the retention period.
+   * Restores are kept as long as a death of that age would be.
+   */
+  private void compact() {
+    if (!file.exists()) {
+      return;
+    }
+    long oldestKept = Instant.now().getEpochSecond() - retentionSeconds;
+    File tempFile = new File(file.getPath() + ".tmp");
+    int dropped = 0;
+
+    try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8);
+         BufferedWriter writer = Files.newBufferedWriter(tempFile.toPath(),
+             StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        Summary summary = Summary.parse(line);
+        Restore restore = summary == null ? Restore.parse(line) : null;
+        long createdAt = summary != null ? summary.createdAt
+            : restore != null ? restore.restoredAt : Long.MIN_VALUE;
+        if (createdAt < oldestKept) {
+          dropped++;
+          continue;
+        }
+        writer.write(line);
+        writer.newLine();
+      }
+    } catch (IOException e) {
+      plugin.getLogger().log(Level.SEVERE, "Could not compact death journal " + file, e);
+      tempFile.delete();
+      return;
+    }
+
+    if (dropped == 0) {
+      tempFile.delete();
+      return;
+    }
+    try {
+      Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                 StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      plugin.getLogger().log(Level.SEVERE, "Could not replace death journal " + file, e);
+    }
+  }
+
+  /**
+   * Read the most recent deaths of a player. Reads the journal file, so it
+   * should not be called on the main thread.
+   *
+   * @param owner - Player UUID.
+   * @param limit - Maximum number of deaths to return.
+   * @return Deaths of the player, most recent first.
+   */
+  List<Summary> readHistory(UUID owner, int limit) {
+    List<Summary> history = new ArrayList<>();
+    if (!file.exists()) {
+      return history;
+    }
+    try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        Summary summary = Summary.parse(line);
+        if (summary != null && summary.owner.equals(owner)) {
+          history.add(0, summary);
+          if (history.size() > limit) {
+            history.remove(history.size() - 1);
+          }
+        }
+      }
+    } catch (IOException e) {
+      plugin.getLogger().log(Level.SEVERE, "Could not read death journal " + file, e);
+    }
+    return history;
+  }
+
+  /**
+   * Find a death and its last restore. Reads the journal file, so it should
+   * not be called on the main thread.
+   *
+   * @param id - Death id.
+   * @return The death or null if it is not in the journal.
+   */
+  StoredDeath readDeath(String id) {
+    if (!file.exists()) {
+      return null;
+    }
+    String prefix = id + SEPARATOR;
+    Summary summary = null;
+    String items = null;
+    Restore restore = null;
+    try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (!line.startsWith(prefix)) {
+          continue;
+        }
+        Summary lineSummary = Summary.parse(line);
+        if (lineSummary != null) {
+          summary = lineSummary;
+          items = line.substring(line.lastIndexOf(SEPARATOR) + 1);
+        } else {
+          Restore lineRestore = Restore.parse(line);
+          restore = lineRestore != null ? lineRestore : restore;
+        }
+      }
+    } catch (IOException e) {
+      plugin.getLogger().log(Level.SEVERE, "Could not read death journal " + file, e);
+    }
+    return summary == null ? null : new StoredDeath(summary, items, restore);
+  }
+
+  /**
+   * Decode serialized items returned by {@link #readDeath(String)}. Creates
+   * item stacks, so it should run on the main thread. Items which can't be
+   * decoded are skipped with a warning.
+   *
+   * @param data - Serialized items.
+   * @return The items.
+   * @throws IOException If the data is malformed.
+   */
+  List<ItemStack> decodeItems(String data) throws IOException {
+    byte[] bytes;
+    try {
+      bytes = Base64.getDecoder().decode(data);
+    } catch (IllegalArgumentException e) {
+      throw new IOException(e.getMessage(), e);
+    }
+    List<ItemStack> items = ItemCodec.decode(bytes, plugin.getLogger());
+    items.removeIf(item -> item == null);
+    return items;
+  }
+
+  /**
+   * Record waiting to be written.
+   */
+  private interface Line {
+    /**
+     * @param compress - Whether to compress item data.
+     * @return The journal line without line separator.
+     */
+    String serialize(boolean compress);
+  }
+
+  /**
+   * Death waiting to be written.
+   */
+  private static final class Entry implements Line {
+    private final String id;
+    private final long createdAt;
+    private final UUID owner;
+    private final String world;
+    private final int x;
+    private final int y;
+    private final int z;
+    private final List<ItemStack> items;
+
+    private Entry(String id, long createdAt, UUID owner, String world, int x, int y, int z,
+                  List<ItemStack> items) {
+      this.id = id;
+      this.createdAt = createdAt;
+      this.owner = owner;
+      this.world = world;
+      this.x = x;
+      this.y = y;
+      this.z = z;
+      this.items = items;
+    }
+
+    @Override
+    public String serialize(boolean compress) {
+      String data = Base64.getEncoder().encodeToString(ItemCodec.encode(items, compress));
+      return String.join(SEPARATOR, Arrays.asList(id, String.valueOf(createdAt),
+          owner.toString(), world, String.valueOf(x), String.valueOf(y), String.valueOf(z),
+          String.valueOf(items.size()), data));
+    }
+  }
+
+  /**
+   * Restore of a death.
+   */
+  static final class Restore implements Line {
+    final String id;
+    final long restoredAt;
+    final UUID restorer;
+
+    private Restore(String id, long restoredAt, UUID restorer) {
+      this.id = id;
+      this.restoredAt = restoredAt;
+      this.restorer = restorer;
+    }
+
+    @Override
+    public String serialize(boolean compress) {
+      return String.join(SEPARATOR, Arrays.asList(id, String.valueOf(restoredAt),
+          restorer.toString()));
+    }
+
+    private static Restore parse(String line) {
+      String[] parts = line.split(SEPARATOR, -1);
+      if (parts.length != 3) {
+        return null;
+      }
+      try {
+        return new Restore(parts[0], Long.parseLong(parts[1]), UUID.fromString(parts[2]));
+      } catch (IllegalArgumentException e) {
+        return null;
+      }
+    }
+  }
+
+  /**
+   * Death read for restoring.
+   */
+  static final class StoredDeath {
+    final Summary summary;
+    final String items;
+    // Last restore or null if the death was never restored.
+    final Restore lastRestore;
+
+    private StoredDeath(Summary summary, String items, Restore lastRestore) {
+      this.summary = summary;
+      this.items = items;
+      this.lastRestore = lastRestore;
+    }
+  }
+
+  /**
+   * Journal record without the item data.
+   */
+  static final class Summary {
+    final String id;
+    final long createdAt;
+    final UUID owner;
+    final String world;
+    final int x;
+    final int y;
+    final int z;
+    final int itemCount;
+
+    private Summary(String id, long createdAt, UUID owner, String world, int x, int y, int z,
+                    int itemCount) {
+      this.id = id;
+      this.createdAt = createdAt;
+      this.owner = owner;
+      this.world = world;
+      this.x = x;
+      this.y = y;
+      this.z = z;
+      this.itemCount = itemCount;
+    }
+
+    private static Summary parse(String line) {
+      String[] parts = line.split(SEPARATOR, -1);
+      if (parts.length != 9) {
+        return null;
+      }
+      try {
+        return new Summary(parts[0], Long.parseLong(parts[1]), UUID.fromString(parts[2]),
+            parts[3], Integer.parseInt(parts[4]), Integer.parseInt(parts[5]),
+            Integer.parseInt(parts[6]), Integer.parseInt(parts[7]));
+      } catch (IllegalArgumentException e) {
+        return null;
+      }
+    }
+  }
+}
@@ -0,0 +1,224 @@
+package com.tallcraft.deathbarrel;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * Queue of deaths whose barrels have not been placed yet. When many players
+ * die in the same tick, placing all barrels at once causes a lag spike, so
+ * deaths are drained over several ticks within a time budget.
+ *
+ * <p>The drops are taken out of the death event when queued, so they are
+ * held only by the queue until they are stored or dropped.
+ *
+ * <p>On Folia deaths are queued per chunk instead and drained on the thread
+ * owning the chunk, so deaths in different regions are processed in
+ * parallel. The budget applies per region: chunk queues drained by the same
+ * thread within a tick share it.
+ */
+public class DeathQueue implements Runnable {
+  private static final long TICK_NANOS = 50_000_000;
+
+  private final DeathBarrel plugin;
+  private final Deque<PendingDeath> pending = new ArrayDeque<>();
+  // Folia only: world id => chunk key => deaths in the chunk.
+  private final Map<UUID, Map<Long, ChunkQueue>> chunkQueues = new ConcurrentHashMap<>();
+  // Folia only: number of deaths in chunk queues.
+  private final AtomicInteger chunkQueued = new AtomicInteger();
+  // Folia only: start and deadline of the budget of the tick the current
+  // thread is in. A region is ticked by one thread at a time.
+  private final ThreadLocal<long[]> tickBudget = ThreadLocal.withInitial(
+      () -> new long[] {System.nanoTime() - TICK_NANOS, 0});
+  private TaskScheduler.Task task;
+
+  DeathQueue(DeathBarrel plugin) {
+    this.plugin = plugin;
+  }
+
+  /**
+   * Queue a death.
+   *
+   * @param player - Player who died.
+   * @param drops  - Drops to store. The queue takes ownership of the list.
+   */
+  void add(Player player, List<ItemStack> drops) {
+    PendingDeath death = new PendingDeath(player.getUniqueId(), player.getLocation(), drops);
+    if (plugin.getTaskScheduler().isFolia()) {
+      Location location = death.location;
+      int chunkX = location.getBlockX() >> 4;
+      int chunkZ = location.getBlockZ() >> 4;
+      ChunkQueue queue = chunkQueues
+          .computeIfAbsent(location.getWorld().getUID(), k -> new ConcurrentHashMap<>())
+          .computeIfAbsent(Util.chunkKey(chunkX, chunkZ),
+              k -> new ChunkQueue(location.getWorld(), chunkX, chunkZ));
+      chunkQueued.incrementAndGet();
+      queue.add(death);
+      return;
+    }
+    pending.add(death);
+  }
+
+  /**
+   * @return Number of deaths waiting to be processed.
+   */
+  int size() {
+    return pending.size() + chunkQueued.get();
+  }
+
+  /**
+   * Start draining the queue every tick.
+   */
+  void start() {
+    task = plugin.getTaskScheduler().runTimer(this, 1, 1);
+  }
+
+  void cancel() {
+    if (task != null) {
+      task.cancel();
+      task = null;
+    }
+  }
+
+  @Override
+  public void run() {
+    if (pending.isEmpty()) {
+      return;
+    }
+    long start = System.nanoTime();
+    try {
+      long deadline = start + budgetNanos();
+      // Always process at least one death per tick, so the queue can't stall.
+      do {
+        process(pending.poll());
+      } while (!pending.isEmpty() && System.nanoTime() < deadline);
+    } finally {
+      plugin.getStats().record(Stats.Handler.DEATH_QUEUE, start);
+    }
+  }
+
+  /**
+   * Process all queued deaths right away, e.g. when the plugin is disabled.
+   * Chunk queues are drained on the calling thread, regions are no longer
+   * ticking by then.
+   */
+  void flush() {
+    while (!pending.isEmpty()) {
+      process(pending.poll());
+    }
+    for (Map<Long, ChunkQueue> worldQueues : chunkQueues.values()) {
+      for (ChunkQueue queue : worldQueues.values()) {
+        queue.drain(Long.MAX_VALUE);
+      }
+    }
+  }
+
+  private long budgetNanos() {
+    return (long) (plugin.getSettings().deathQueueMaxTickMillis * 1_000_000);
+  }
+
+  /**
+   * Get the end of the budget of the current tick on this thread.
+   */
+  private long regionDeadline(long now) {
+    long[] budget = tickBudget.get();
+    if (now - budget[0] >= TICK_NANOS) {
+      budget[0] = now;
+      budget[1] = now + budgetNanos();
+    }
+    return budget[1];
+  }
+
+  private void process(PendingDeath death) {
+    plugin.storeQueuedDeath(death.playerId, death.location, death.drops);
+  }
+
+  /**
+   * Deaths in one chunk on Folia. Drained by a task on the thread owning the
+   * chunk, which is scheduled while there are deaths left.
+   */
+  private final class ChunkQueue implements Runnable {
+    private final World world;
+    private final int chunkX;
+    private final int chunkZ;
+    private final Queue<PendingDeath> deaths = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    private ChunkQueue(World world, int chunkX, int chunkZ) {
+      this.world = world;
+      this.chunkX = chunkX;
+      this.chunkZ = chunkZ;
+    }
+
+    private void add(PendingDeath death) {
+      deaths.add(death);
+      schedule();
+    }
+
+    private void schedule() {
+      if (scheduled.compareAndSet(false, true)) {
+        plugin.getTaskScheduler().runAt(world, chunkX, chunkZ, this);
+      }
+    }
+
+    @Override
+    public void run() {
+      long start = System.nanoTime();
+      try {
+        drain(regionDeadline(start));
+      } finally {
+        plugin.getStats().record(Stats.Handler.DEATH_QUEUE, start);
+        scheduled.set(false);
+        if (!deaths.isEmpty()) {
+          // Resumed on the next tick.
+          schedule();
+        } else {
+          chunkQueues.get(world.getUID()).remove(Util.chunkKey(chunkX, chunkZ), this);
+          // A death added while this queue was being removed is still
+          // processed by it.
+          if (!deaths.isEmpty()) {
+            schedule();
+          }
+        }
+      }
+    }
+
+    /**
+     * Process deaths until the deadline, at least one.
+     */
+    private void drain(long deadline) {
+      PendingDeath death;
+      do {
+        death = deaths.poll();
+        if (death != null) {
+          chunkQueued.decrementAndGet();
+          process(death);
+        }
+      } while (death != null && System.nanoTime() < deadline);
+    }
+  }
+
+  private static final class PendingDeath {
+    private final UUID playerId;
+    private final Location location;
+    private final List<ItemStack> drops;
+
+    private PendingDeath(UUID playerId, Location location, List<ItemStack> drops) {
+      this.playerId = playerId;
+      this.location = location;
+      this.drops = drops;
+    }
+  }
+}
@@ -0,0 +1,38 @@
+package com.tallcraft.deathbarrel;
+
+import java.util.UUID;
+
+/**
+ * Entry of the {@link BarrelIndex}. Mirrors the metadata stored in the
+ * barrel's persistent data container so it can be used without loading the
+ * chunk.
+ */
+public final class IndexedBarrel {
+  private final BarrelPosition position;
+  private final UUID owner;
+  private final long createdAt;
+
+  IndexedBarrel(BarrelPosition position, UUID owner, long createdAt) {
+    this.position = position;
+    this.owner = owner;
+    this.createdAt = createdAt;
+  }
+
+  BarrelPosition getPosition() {
+    return position;
+  }
+
+  /**
+   * @return UUID of the player who died or null if unknown.
+   */
+  UUID getOwner() {
+    return owner;
+  }
+
+  /**
+   * @return Creation time as unix timestamp in seconds or -1 if unknown.
+   */
+  long getCreatedAt() {
+    return createdAt;
+  }
+}
@@ -0,0 +1,656 @@
+package com.tallcraft.deathbarrel;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.configuration.serialization.ConfigurationSerialization;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.ItemMeta;
+
+/**
+ * Compact binary encoding of item lists, used to store death contents
+ * outside of the world.
+ *
+ * <p>Layout: a magic byte, a flags byte and the body, deflated if
+ * {@link #FLAG_COMPRESSED} is set. The body starts with the data version of
+ * the server that wrote it, followed by a dictionary of all strings used by
+ * the items and the items. With {@link #FLAG_SHARED_DICTIONARY} the
+ * dictionary is left out, the strings are in a {@link Dictionary} shared by
+ * all records of a file.
+ *
+ * <p>Each item is written as varints: material index + 1 (0 for an empty
+ * slot), amount and the number of meta fields (0 for no meta). Item meta is
+ * stored field by field as returned by {@link ItemMeta#serialize()}: key
+ * index, kind and value. Names, lore lines, enchantments and other strings
+ * are dictionary indices, numbers and flags are varints. Values of other
+ * kinds, e.g. potion effects, are kept in Bukkit's YAML form, so every kind of
+ * meta round-trips. Materials, lore lines and enchantments repeated across a
+ * death are stored once.
+ *
+ * <p>Items are rebuilt through {@link ItemStack#deserialize}, which upgrades
+ * materials renamed since the stored data version. Items which still can't be
+ * rebuilt are skipped with a warning, the rest of the list is kept.
+ */
+public final class ItemCodec {
+  static final int MAGIC = 0xDC;
+  private static final int FLAG_COMPRESSED = 1;
+  private static final int FLAG_SHARED_DICTIONARY = 2;
+  private static final int FLAG_DICTIONARY = 4;
+  // Kinds of meta fields.
+  static final int KIND_STRING = 0;
+  static final int KIND_INT = 1;
+  static final int KIND_BOOLEAN = 2;
+  static final int KIND_STRING_LIST = 3;
+  static final int KIND_INT_MAP = 4;
+  static final int KIND_YAML = 5;
+  private static final String META_KEY = "meta";
+  private static final String META_ALIAS = "ItemMeta";
+  private static final String VALUE_KEY = "value";
+  // Limits for decoding, far above anything a death can produce.
+  private static final int MAX_COUNT = 1 << 16;
+  private static final int MAX_STRING_LENGTH = 1 << 20;
+
+  private ItemCodec() {
+  }
+
+  /**
+   * Encode items. Safe to call off the main thread for items which are not
+   * modified concurrently.
+   *
+   * @param items    - Items to encode. May contain null for empty slots.
+   * @param compress - Deflate the encoded items.
+   * @return The encoded items.
+   */
+  static byte[] encode(List<ItemStack> items, boolean compress) {
+    return encode(toRaw(items), compress);
+  }
+
+  /**
+   * Decode items written by {@link #encode(List, boolean)}. Creates item
+   * stacks, so it should run on the main thread.
+   *
+   * @param data   - Encoded items.
+   * @param logger - Receives a warning for every item which is skipped.
+   * @return The items. Empty slots and skipped items are null.
+   * @throws IOException If the data is malformed.
+   */
+  static List<ItemStack> decode(byte[] data, Logger logger) throws IOException {
+    return fromRaw(decodeRaw(data), logger);
+  }
+
+  /**
+   * Decode items written with a shared dictionary.
+   *
+   * @param data       - Encoded items.
+   * @param dictionary - Dictionary the items were written with.
+   * @param logger     - Receives a warning for every item which is skipped.
+   * @return The items. Empty slots and skipped items are null.
+   * @throws IOException If the data is malformed.
+   */
+  static List<ItemStack> decode(byte[] data, Dictionary dictionary, Logger logger)
+      throws IOException {
+    return fromRaw(decodeRaw(data, dictionary), logger);
+  }
+
+  /**
+   * Take items apart into their stored form. Safe to call off the main thread
+   * for items which are not modified concurrently.
+   *
+   * @param items - Items to convert. May contain null for empty slots.
+   * @return The items in stored form.
+   */
+  @SuppressWarnings("deprecation")
+  static RawItems toRaw(List<ItemStack> items) {
+    List<RawItem> rawItems = new ArrayList<>(items.size());
+    for (ItemStack item : items) {
+      if (item == null || item.getType().isAir()) {
+        rawItems.add(null);
+        continue;
+      }
+      List<MetaField> meta = null;
+      if (item.hasItemMeta()) {
+        Map<String, Object> serialized = item.getItemMeta().serialize();
+        meta = new ArrayList<>(serialized.size());
+        for (Map.Entry<String, Object> entry : serialized.entrySet()) {
+          meta.add(MetaField.of(entry.getKey(), entry.getValue()));
+        }
+      }
+      rawItems.add(new RawItem(item.getType().name(), item.getAmount(), meta));
+    }
+    return new RawItems(Bukkit.getUnsafe().getDataVersion(), rawItems);
+  }
+
+  /**
+   * Build item stacks from their stored form. Should run on the main thread.
+   *
+   * @param rawItems - Items in stored form.
+   * @param logger   - Receives a warning for every item which is skipped.
+   * @return The items. Empty slots and skipped items are null.
+   */
+  static List<ItemStack> fromRaw(RawItems rawItems, Logger logger) {
+    List<ItemStack> items = new ArrayList<>(rawItems.items.size());
+    for (RawItem rawItem : rawItems.items) {
+      if (rawItem == null) {
+        items.add(null);
+        continue;
+      }
+      try {
+        items.add(toItemStack(rawItem, rawItems.dataVersion));
+      } catch (IOException | RuntimeException e) {
+        logger.warning("Skipping item which could not be decoded: " + rawItem.amount + "x "
+            + rawItem.type + " (" + e + ")");
+        items.add(null);
+      }
+    }
+    return items;
+  }
+
+  private static ItemStack toItemStack(RawItem rawItem, int dataVersion) throws IOException {
+    // Same layout as ItemStack.serialize(), "v" makes Bukkit upgrade the material.
+    Map<String, Object> map = new HashMap<>();
+    map.put("v", dataVersion);
+    map.put("type", rawItem.type);
+    map.put("amount", rawItem.amount);
+    if (rawItem.meta != null) {
+      map.put(META_KEY, toItemMeta(rawItem.meta));
+    }
+    ItemStack item = ItemStack.deserialize(map);
+    if (item.getType().isAir()) {
+      throw new IOException("Unknown material");
+    }
+    return item;
+  }
+
+  private static ItemMeta toItemMeta(List<MetaField> fields) throws IOException {
+    Map<String, Object> map = new LinkedHashMap<>();
+    map.put(ConfigurationSerialization.SERIALIZED_TYPE_KEY, META_ALIAS);
+    for (MetaField field : fields) {
+      map.put(field.key, field.toValue());
+    }
+    Object meta = ConfigurationSerialization.deserializeObject(map);
+    if (!(meta instanceof ItemMeta)) {
+      throw new IOException("Invalid item meta");
+    }
+    return (ItemMeta) meta;
+  }
+
+  /**
+   * Write items in the codec's format. Does not depend on a running server.
+   *
+   * @param rawItems - Items to write.
+   * @param compress - Deflate the body.
+   * @return The encoded items.
+   */
+  static byte[] encode(RawItems rawItems, boolean compress) {
+    return encode(rawItems, compress, null);
+  }
+
+  /**
+   * Write items in the codec's format.
+   *
+   * @param rawItems   - Items to write.
+   * @param compress   - Deflate the body.
+   * @param dictionary - Dictionary shared by the records of a file, strings
+   *                   are added to it. If null, the record has its own.
+   * @return The encoded items.
+   */
+  static byte[] encode(RawItems rawItems, boolean compress, Dictionary dictionary) {
+    Dictionary strings = dictionary == null ? new Dictionary() : dictionary;
+    ByteArrayOutputStream items = new ByteArrayOutputStream(16 + rawItems.items.size() * 4);
+    try {
+      writeVarInt(items, rawItems.items.size());
+      for (RawItem item : rawItems.items) {
+        if (item == null) {
+          items.write(0);
+          continue;
+        }
+        writeVarInt(items, strings.lookup(item.type) + 1);
+        writeVarInt(items, item.amount);
+        if (item.meta == null) {
+          items.write(0);
+          continue;
+        }
+        writeVarInt(items, item.meta.size());
+        for (MetaField field : item.meta) {
+          field.write(items, strings);
+        }
+      }
+    } catch (IOException e) {
+      // Writing to memory does not fail.
+      throw new IllegalStateException(e);
+    }
+
+    int flags = (compress ? FLAG_COMPRESSED : 0)
+        | (dictionary == null ? 0 : FLAG_SHARED_DICTIONARY);
+    return write(flags, out -> {
+      writeVarInt(out, rawItems.dataVersion);
+      if (dictionary == null) {
+        strings.write(out);
+      }
+      items.writeTo(out);
+    });
+  }
+
+  /**
+   * Read items in the codec's format without creating item stacks. Does not
+   * depend on a running server.
+   *
+   * @param data - Encoded items.
+   * @return The items.
+   * @throws IOException If the data is malformed.
+   */
+  static RawItems decodeRaw(byte[] data) throws IOException {
+    return decodeRaw(data, null);
+  }
+
+  /**
+   * Read items in the codec's format without creating item stacks.
+   *
+   * @param data       - Encoded items.
+   * @param dictionary - Dictionary shared by the records of a file, or null
+   *                   if the items were written with their own.
+   * @return The items.
+   * @throws IOException If the data is malformed.
+   */
+  static RawItems decodeRaw(byte[] data, Dictionary dictionary) throws IOException {
+    int flags = flags(data);
+    if ((flags & FLAG_DICTIONARY) != 0) {
+      throw new IOException("Not encoded items");
+    }
+    boolean shared = (flags & FLAG_SHARED_DICTIONARY) != 0;
+    if (shared && dictionary == null) {
+      throw new IOException("Items were written with a shared dictionary");
+    }
+
+    try (DataInputStream in = open(data, flags)) {
+      int dataVersion = readVarInt(in);
+      Dictionary strings = shared ? dictionary : Dictionary.read(in);
+
+      int count = readLength(in, MAX_COUNT);
+      List<RawItem> items = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        int type = readVarInt(in);
+        if (type == 0) {
+          items.add(null);
+          continue;
+        }
+        String material = strings.get(type - 1);
+        int amount = readVarInt(in);
+        int fieldCount = readLength(in, MAX_COUNT);
+        List<MetaField> meta = null;
+        if (fieldCount > 0) {
+          meta = new ArrayList<>(fieldCount);
+          for (int j = 0; j < fieldCount; j++) {
+            meta.add(MetaField.read(in, strings));
+          }
+        }
+        items.add(new RawItem(material, amount, meta));
+      }
+      checkEnd(in);
+      return new RawItems(dataVersion, items);
+    }
+  }
+
+  private static int flags(byte[] data) throws IOException {
+    if (data.length < 2 || (data[0] & 0xFF) != MAGIC) {
+      throw new IOException("Not encoded items");
+    }
+    return data[1] & 0xFF;
+  }
+
+  private static DataInputStream open(byte[] data, int flags) {
+    InputStream bytes = new ByteArrayInputStream(data, 2, data.length - 2);
+    return new DataInputStream(
+        (flags & FLAG_COMPRESSED) != 0 ? new InflaterInputStream(bytes) : bytes);
+  }
+
+  private static byte[] write(int flags, Body body) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+    bytes.write(MAGIC);
+    bytes.write(flags);
+    try (DataOutputStream out = new DataOutputStream(
+        (flags & FLAG_COMPRESSED) != 0 ? new DeflaterOutputStream(bytes) : bytes)) {
+      body.write(out);
+    } catch (IOException e) {
+      // Writing to memory does not fail.
+      throw new IllegalStateException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static void checkEnd(InputStream in) throws IOException {
+    // Also makes the inflater verify the checksum at the end of the stream.
+    if (in.read() >= 0) {
+      throw new IOException("Trailing data");
+    }
+  }
+
+  private static void writeString(OutputStream out, String value) throws IOException {
+    byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+    writeVarInt(out, utf8.length);
+    out.write(utf8);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    byte[] utf8 = new byte[readLength(in, MAX_STRING_LENGTH)];
+    in.readFully(utf8);
+    return new String(utf8, StandardCharsets.UTF_8);
+  }
+
+  static void writeVarInt(OutputStream out, int value) throws IOException {
+    while ((value & ~0x7F) != 0) {
+      out.write((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.write(value);
+  }
+
+  static int readVarInt(InputStream in) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      int b = in.read();
+      if (b < 0) {
+        throw new EOFException();
+      }
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed varint");
+  }
+
+  // Zigzag encoding keeps small negative numbers short.
+  private static void writeSignedVarInt(OutputStream out, int value) throws IOException {
+    writeVarInt(out, (value << 1) ^ (value >> 31));
+  }
+
+  private static int readSignedVarInt(InputStream in) throws IOException {
+    int value = readVarInt(in);
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  /**
+   * Read a count or length, rejecting values which can't be valid, so
+   * malformed data does not cause huge allocations.
+   */
+  private static int readLength(InputStream in, int max) throws IOException {
+    int length = readVarInt(in);
+    if (length < 0 || length > max) {
+      throw new IOException("Invalid length " + length);
+    }
+    return length;
+  }
+
+  private interface Body {
+    void write(DataOutputStream out) throws IOException;
+  }
+
+  /**
+   * Strings used by encoded items. Records of a file can share one, so
+   * strings repeated across deaths are stored once per file. Entries are only
+   * added, records stay valid while it grows. Not thread safe.
+   */
+  static final class Dictionary {
+    private final List<String> entries = new ArrayList<>();
+    private final Map<String, Integer> index = new HashMap<>();
+
+    int size() {
+      return entries.size();
+    }
+
+    private int lookup(String value) {
+      Integer existing = index.get(value);
+      if (existing != null) {
+        return existing;
+      }
+      entries.add(value);
+      index.put(value, entries.size() - 1);
+      return entries.size() - 1;
+    }
+
+    private String get(int i) throws IOException {
+      if (i < 0 || i >= entries.size()) {
+        throw new IOException("Dictionary index out of range: " + i);
+      }
+      return entries.get(i);
+    }
+
+    private void write(OutputStream out) throws IOException {
+      writeVarInt(out, entries.size());
+      for (String entry : entries) {
+        writeString(out, entry);
+      }
+    }
+
+    private static Dictionary read(DataInputStream in) throws IOException {
+      Dictionary dictionary = new Dictionary();
+      int count = readLength(in, MAX_COUNT);
+      for (int i = 0; i < count; i++) {
+        String entry = readString(in);
+        // Keep duplicates, so indices still match.
+        dictionary.entries.add(entry);
+        dictionary.index.putIfAbsent(entry, i);
+      }
+      return dictionary;
+    }
+
+    /**
+     * Encode the dictionary, to be stored next to the records using it.
+     *
+     * @param compress - Deflate the encoded dictionary.
+     * @return The encoded dictionary.
+     */
+    byte[] encode(boolean compress) {
+      return ItemCodec.write(FLAG_DICTIONARY | (compress ? FLAG_COMPRESSED : 0), this::write);
+    }
+
+    /**
+     * Decode a dictionary written by {@link #encode(boolean)}.
+     *
+     * @param data - Encoded dictionary.
+     * @return The dictionary.
+     * @throws IOException If the data is malformed.
+     */
+    static Dictionary decode(byte[] data) throws IOException {
+      int flags = flags(data);
+      if ((flags & FLAG_DICTIONARY) == 0) {
+        throw new IOException("Not an encoded dictionary");
+      }
+      try (DataInputStream in = open(data, flags)) {
+        Dictionary dictionary = read(in);
+        checkEnd(in);
+        return dictionary;
+      }
+    }
+  }
+
+  /**
+   * Item as stored by the codec, before it is turned into an item stack.
+   */
+  static final class RawItem {
+    final String type;
+    final int amount;
+    // Fields of the item meta or null.
+    final List<MetaField> meta;
+
+    RawItem(String type, int amount, List<MetaField> meta) {
+      this.type = type;
+      this.amount = amount;
+      this.meta = meta;
+    }
+  }
+
+  /**
+   * Entry of serialized item meta.
+   */
+  static final class MetaField {
+    final String key;
+    final int kind;
+    // String, Integer, Boolean, List of String, Map of String to Integer or,
+    // for KIND_YAML, the value in YAML form.
+    final Object value;
+
+    MetaField(String key, int kind, Object value) {
+      this.key = key;
+      this.kind = kind;
+      this.value = value;
+    }
+
+    /**
+     * Store an entry of serialized item meta in the most compact kind which
+     * fits its value.
+     *
+     * @param key   - Key of the entry.
+     * @param value - Value of the entry.
+     * @return The field.
+     */
+    static MetaField of(String key, Object value) {
+      if (value instanceof String) {
+        return new MetaField(key, KIND_STRING, value);
+      } else if (value instanceof Integer) {
+        return new MetaField(key, KIND_INT, value);
+      } else if (value instanceof Boolean) {
+        return new MetaField(key, KIND_BOOLEAN, value);
+      } else if (value instanceof List && isAll((List<?>) value, String.class)) {
+        return new MetaField(key, KIND_STRING_LIST, new ArrayList<>((List<?>) value));
+      } else if (value instanceof Map && isAll(((Map<?, ?>) value).keySet(), String.class)
+          && isAll(((Map<?, ?>) value).values(), Integer.class)) {
+        return new MetaField(key, KIND_INT_MAP, new LinkedHashMap<>((Map<?, ?>) value));
+      }
+      // Wrapped in a list, YAML would turn a top level map into a section.
+      YamlConfiguration yaml = new YamlConfiguration();
+      yaml.set(VALUE_KEY, Collections.singletonList(value));
+      return new MetaField(key, KIND_YAML, yaml.saveToString());
+    }
+
+    private static boolean isAll(Iterable<?> values, Class<?> type) {
+      for (Object value : values) {
+        if (!type.isInstance(value)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Get the value as found in serialized item meta.
+     *
+     * @return The value.
+     * @throws IOException If a value in YAML form is malformed.
+     */
+    Object toValue() throws IOException {
+      if (kind != KIND_YAML) {
+        return value;
+      }
+      YamlConfiguration yaml = new YamlConfiguration();
+      try {
+        yaml.loadFromString((String) value);
+      } catch (InvalidConfigurationException e) {
+        throw new IOException("Invalid item meta", e);
+      }
+      List<?> wrapped = yaml.getList(VALUE_KEY);
+      if (wrapped == null || wrapped.size() != 1) {
+        throw new IOException("Invalid item meta");
+      }
+      return wrapped.get(0);
+    }
+
+    private void write(OutputStream out, Dictionary strings) throws IOException {
+      writeVarInt(out, strings.lookup(key));
+      writeVarInt(out, kind);
+      switch (kind) {
+        case KIND_STRING:
+        case KIND_YAML:
+          writeVarInt(out, strings.lookup((String) value));
+          break;
+        case KIND_INT:
+          writeSignedVarInt(out, (Integer) value);
+          break;
+        case KIND_BOOLEAN:
+          writeVarInt(out, (Boolean) value ? 1 : 0);
+          break;
+        case KIND_STRING_LIST:
+          List<?> list = (List<?>) value;
+          writeVarInt(out, list.size());
+          for (Object entry : list) {
+            writeVarInt(out, strings.lookup((String) entry));
+          }
+          break;
+        case KIND_INT_MAP:
+          Map<?, ?> map = (Map<?, ?>) value;
+          writeVarInt(out, map.size());
+          for (Map.Entry<?, ?> entry : map.entrySet()) {
+            writeVarInt(out, strings.lookup((String) entry.getKey()));
+            writeSignedVarInt(out, (Integer) entry.getValue());
+          }
+          break;
+        default:
+          throw new IllegalStateException("Unknown meta field kind " + kind);
+      }
+    }
+
+    private static MetaField read(InputStream in, Dictionary strings) throws IOException {
+      String key = strings.get(readVarInt(in));
+      int kind = readVarInt(in);
+      switch (kind) {
+        case KIND_STRING:
+        case KIND_YAML:
+          return new MetaField(key, kind, strings.get(readVarInt(in)));
+        case KIND_INT:
+          return new MetaField(key, kind, readSignedVarInt(in));
+        case KIND_BOOLEAN:
+          return new MetaField(key, kind, readVarInt(in) != 0);
+        case KIND_STRING_LIST:
+          int size = readLength(in, MAX_COUNT);
+          List<String> list = new ArrayList<>(size);
+          for (int i = 0; i < size; i++) {
+            list.add(strings.get(readVarInt(in)));
+          }
+          return new MetaField(key, kind, list);
+        case KIND_INT_MAP:
+          int entries = readLength(in, MAX_COUNT);
+          Map<String, Integer> map = new LinkedHashMap<>();
+          for (int i = 0; i < entries; i++) {
+            map.put(strings.get(readVarInt(in)), readSignedVarInt(in));
+          }
+          return new MetaField(key, kind, map);
+        default:
+          throw new IOException("Unknown meta field kind " + kind);
+      }
+    }
+  }
+
+  /**
+   * Decoded item list and the data version of the server that wrote it.
+   */
+  static final class RawItems {
+    final int dataVersion;
+    // Empty slots are null.
+    final List<RawItem> items;
+
+    RawItems(int dataVersion, List<RawItem> items) {
+      this.dataVersion = dataVersion;
+      this.items = items;
+    }
+  }
+}
@@ -0,0 +1,148 @@
+package com.tallcraft.deathbarrel;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+
+/**
+ * Background sweep over the loaded chunks, looking for death barrels missing
+ * from the barrel index. Chunks which were loaded before the plugin was
+ * enabled, e.g. spawn chunks or chunks around players, don't fire a chunk load
+ * event until they are unloaded, so they would otherwise not be scanned.
+ *
+ * <p>Loaded chunks are looked for within the view distance of the world
+ * spawns and online players, so the loaded chunks of a world are never listed
+ * all at once. Only a few chunks are checked per tick and within a time
+ * budget. The sweep resumes where it left off on the next tick and ends after
+ * one complete pass. Chunks loaded later are scanned when they load, chunks
+ * which have been scanned before are skipped.
+ */
+public class LoadedChunkSweeper implements Runnable {
+  private final DeathBarrel plugin;
+  private final int chunksPerTick;
+  private final long maxTickNanos;
+
+  // Cursor of the pass: chunks to sweep around, captured when the pass
+  // started, the current one and the offset within the square around it.
+  private List<Center> centers = null;
+  private int radius = 0;
+  private int centerIndex = 0;
+  private int offset = 0;
+  // World id => chunk keys checked in this pass. Squares of centers overlap.
+  private final Map<UUID, Set<Long>> visited = new HashMap<>();
+  private TaskScheduler.Task task;
+
+  /**
+   * Create the sweeper.
+   *
+   * @param plugin        - Plugin instance.
+   * @param chunksPerTick - Maximum number of chunks to check per tick.
+   * @param maxTickMicros - Maximum main thread time to spend per tick.
+   */
+  LoadedChunkSweeper(DeathBarrel plugin, int chunksPerTick, long maxTickMicros) {
+    this.plugin = plugin;
+    this.chunksPerTick = Math.max(1, chunksPerTick);
+    this.maxTickNanos = maxTickMicros * 1_000;
+  }
+
+  /**
+   * Start running the sweep every tick.
+   */
+  void start() {
+    task = plugin.getTaskScheduler().runTimer(this, 1, 1);
+  }
+
+  void cancel() {
+    if (task != null) {
+      task.cancel();
+      task = null;
+    }
+  }
+
+  @Override
+  public void run() {
+    long start = System.nanoTime();
+    try {
+      tick(start + maxTickNanos);
+    } finally {
+      plugin.getStats().record(Stats.Handler.CHUNK_SWEEP, start);
+    }
+  }
+
+  private void tick(long deadline) {
+    if (centers == null) {
+      centers = captureCenters();
+      radius = plugin.getServer().getViewDistance();
+    }
+    int side = 2 * radius + 1;
+
+    int checked = 0;
+    while (checked < chunksPerTick && System.nanoTime() < deadline) {
+      if (centerIndex >= centers.size()) {
+        plugin.onSweepPassComplete();
+        return;
+      }
+      Center center = centers.get(centerIndex);
+      int chunkX = center.chunkX + offset % side - radius;
+      int chunkZ = center.chunkZ + offset / side - radius;
+      if (++offset >= side * side) {
+        offset = 0;
+        centerIndex++;
+      }
+
+      World world = plugin.getServer().getWorld(center.worldId);
+      if (world == null || !world.isChunkLoaded(chunkX, chunkZ)) {
+        continue;
+      }
+      if (!visited.computeIfAbsent(center.worldId, k -> new HashSet<>())
+          .add(Util.chunkKey(chunkX, chunkZ))) {
+        continue;
+      }
+      plugin.checkChunk(world.getChunkAt(chunkX, chunkZ));
+      checked++;
+    }
+  }
+
+  /**
+   * Collect the chunks around which other chunks are kept loaded: the spawn
+   * of every world and the chunk of every online player.
+   */
+  private List<Center> captureCenters() {
+    List<Center> result = new ArrayList<>();
+    for (World world : plugin.getServer().getWorlds()) {
+      result.add(Center.of(world.getSpawnLocation()));
+    }
+    for (Player player : plugin.getServer().getOnlinePlayers()) {
+      result.add(Center.of(player.getLocation()));
+    }
+    return result;
+  }
+
+  /**
+   * Chunk to sweep the surrounding chunks of.
+   */
+  private static final class Center {
+    private final UUID worldId;
+    private final int chunkX;
+    private final int chunkZ;
+
+    private Center(UUID worldId, int chunkX, int chunkZ) {
+      this.worldId = worldId;
+      this.chunkX = chunkX;
+      this.chunkZ = chunkZ;
+    }
+
+    private static Center of(Location location) {
+      return new Center(location.getWorld().getUID(), location.getBlockX() >> 4,
+          location.getBlockZ() >> 4);
+    }
+  }
+}
@@ -0,0 +1,40 @@
+package com.tallcraft.deathbarrel;
+
+import org.bukkit.Location;
+
+/**
+ * Placeholder values for rendering a {@link MessageTemplate}. Mutable, so one
+ * instance can be reused for several messages.
+ */
+public final class MessageContext {
+  String player;
+  String world;
+  int x;
+  int y;
+  int z;
+  int items;
+  String expires;
+
+  MessageContext player(String player) {
+    this.player = player;
+    return this;
+  }
+
+  MessageContext location(Location location) {
+    this.world = location.getWorld() == null ? null : location.getWorld().getName();
+    this.x = location.getBlockX();
+    this.y = location.getBlockY();
+    this.z = location.getBlockZ();
+    return this;
+  }
+
+  MessageContext items(int items) {
+    this.items = items;
+    return this;
+  }
+
+  MessageContext expires(String expires) {
+    this.expires = expires;
+    return this;
+  }
+}
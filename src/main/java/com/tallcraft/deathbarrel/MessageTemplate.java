@@ -0,0 +1,154 @@
+package com.tallcraft.deathbarrel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Message with placeholders like {player} or {x}. The message is parsed once
+ * into literal and placeholder segments, so rendering is a single pass into a
+ * reused buffer.
+ *
+ * <p>Numbered placeholders like {0} are still supported for messages written
+ * for older versions. Each template defines which named placeholder they map
+ * to.
+ */
+public final class MessageTemplate {
+  private static final ThreadLocal<StringBuilder> BUFFER =
+      ThreadLocal.withInitial(() -> new StringBuilder(128));
+
+  // Literal text before each placeholder, plus the trailing text. Always has
+  // one more element than placeholders.
+  private final String[] literals;
+  private final Placeholder[] placeholders;
+
+  private MessageTemplate(String[] literals, Placeholder[] placeholders) {
+    this.literals = literals;
+    this.placeholders = placeholders;
+  }
+
+  /**
+   * Parse a message. Unknown placeholders are kept as literal text.
+   *
+   * @param raw        - Message text. null is rendered as an error message.
+   * @param positional - Named placeholders that {0}, {1}, ... map to.
+   * @return The parsed template.
+   */
+  static MessageTemplate compile(String raw, Placeholder... positional) {
+    if (raw == null) {
+      return new MessageTemplate(new String[] {"Invalid message: null"}, new Placeholder[0]);
+    }
+
+    List<String> literals = new ArrayList<>();
+    List<Placeholder> placeholders = new ArrayList<>();
+    StringBuilder literal = new StringBuilder();
+    int i = 0;
+    while (i < raw.length()) {
+      char c = raw.charAt(i);
+      int end = c == '{' ? raw.indexOf('}', i + 1) : -1;
+      Placeholder placeholder = end > i + 1
+          ? Placeholder.parse(raw.substring(i + 1, end), positional)
+          : null;
+      if (placeholder != null) {
+        literals.add(literal.toString());
+        literal.setLength(0);
+        placeholders.add(placeholder);
+        i = end + 1;
+        continue;
+      }
+      literal.append(c);
+      i++;
+    }
+    literals.add(literal.toString());
+
+    return new MessageTemplate(literals.toArray(new String[0]),
+                               placeholders.toArray(new Placeholder[0]));
+  }
+
+  /**
+   * Fill in the placeholders.
+   *
+   * @param context - Placeholder values.
+   * @return The message text.
+   */
+  String render(MessageContext context) {
+    if (placeholders.length == 0) {
+      return literals[0];
+    }
+    StringBuilder buffer = BUFFER.get();
+    buffer.setLength(0);
+    for (int i = 0; i < placeholders.length; i++) {
+      buffer.append(literals[i]);
+      placeholders[i].append(buffer, context);
+    }
+    buffer.append(literals[literals.length - 1]);
+    return buffer.toString();
+  }
+
+  /**
+   * Supported placeholders.
+   */
+  enum Placeholder {
+    PLAYER("player"),
+    WORLD("world"),
+    X("x"),
+    Y("y"),
+    Z("z"),
+    ITEMS("items"),
+    EXPIRES("expires");
+
+    private final String name;
+
+    Placeholder(String name) {
+      this.name = name;
+    }
+
+    private static Placeholder parse(String name, Placeholder[] positional) {
+      for (Placeholder placeholder : values()) {
+        if (placeholder.name.equals(name)) {
+          return placeholder;
+        }
+      }
+      if (name.length() == 1 && Character.isDigit(name.charAt(0))) {
+        int index = name.charAt(0) - '0';
+        if (index < positional.length) {
+          return positional[index];
+        }
+      }
+      return null;
+    }
+
+    private void append(StringBuilder buffer, MessageContext context) {
+      switch (this) {
+        case PLAYER:
+          appendNullable(buffer, context.player);
+          break;
+        case WORLD:
+          appendNullable(buffer, context.world);
+          break;
+        case X:
+          buffer.append(context.x);
+          break;
+        case Y:
+          buffer.append(context.y);
+          break;
+        case Z:
+          buffer.append(context.z);
+          break;
+        case ITEMS:
+          buffer.append(context.items);
+          break;
+        case EXPIRES:
+          appendNullable(buffer, context.expires);
+          break;
+        default:
+          break;
+      }
+    }
+
+    private static void appendNullable(StringBuilder buffer, String value) {
+      if (value != null) {
+        buffer.append(value);
+      }
+    }
+  }
+}
@@ -0,0 +1,64 @@
+package com.tallcraft.deathbarrel;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bukkit.entity.Player;
+
+/**
+ * Caches the result of a permission check per player for a short time. Bukkit
+ * has no event for permission changes, so entries expire after a fixed time
+ * and are invalidated when a player quits or changes worlds.
+ */
+public class PermissionCache {
+  private final String permission;
+  private final long ttlNanos;
+  private final Map<UUID, Entry> entries = new ConcurrentHashMap<>();
+
+  /**
+   * Create a permission cache.
+   *
+   * @param permission - Permission to check.
+   * @param ttlSeconds - How long to cache results. 0 disables caching.
+   */
+  PermissionCache(String permission, long ttlSeconds) {
+    this.permission = permission;
+    this.ttlNanos = ttlSeconds * 1_000_000_000L;
+  }
+
+  boolean hasPermission(Player player) {
+    if (ttlNanos <= 0) {
+      return player.hasPermission(permission);
+    }
+
+    long now = System.nanoTime();
+    Entry entry = entries.get(player.getUniqueId());
+    if (entry != null && now - entry.checkedAt < ttlNanos) {
+      return entry.value;
+    }
+
+    boolean value = player.hasPermission(permission);
+    if (entry == null) {
+      entries.put(player.getUniqueId(), new Entry(value, now));
+    } else {
+      entry.value = value;
+      entry.checkedAt = now;
+    }
+    return value;
+  }
+
+  void invalidate(UUID playerId) {
+    entries.remove(playerId);
+  }
+
+  private static final class Entry {
+    private boolean value;
+    private long checkedAt;
+
+    private Entry(boolean value, long checkedAt) {
+      this.value = value;
+      this.checkedAt = checkedAt;
+    }
+  }
+}
@@ -0,0 +1,87 @@
+package com.tallcraft.deathbarrel;
+
+import java.util.logging.Logger;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+/**
+ * Immutable snapshot of the plugin configuration. Built once when the config
+ * is loaded, so event handlers read plain fields instead of looking up config
+ * paths.
+ */
+public final class Settings {
+  final boolean removeOnEmpty;
+  final boolean removeOnEmptyWithoutPhysics;
+  final long removeBarrelsAfterSeconds;
+  final boolean protectFromOtherPlayers;
+  final ClickPolicy clickPolicy;
+  final long permissionCacheSeconds;
+  final boolean virtualStorage;
+  final int barrelSearchRadius;
+  final int consolidateDeathsRadius;
+  final boolean mergeDropStacks;
+  final double deathQueueMaxTickMillis;
+  final int cleanupMaxChunkLoads;
+  final double cleanupMaxTickMillis;
+  final int sweepChunksPerTick;
+  final long sweepMaxTickMicros;
+  final boolean metricsCustomCharts;
+  final boolean scanChunksForUnindexedBarrels;
+  final boolean journalEnabled;
+  final int journalRetentionDays;
+  final int journalQueueSize;
+  final boolean compressStoredItems;
+  final boolean recordTimings;
+
+  // Display text for the {expires} placeholder.
+  final String expiresText;
+  final MessageTemplate deathLocationMessage;
+  final MessageTemplate barrelCreatedMessage;
+  final MessageTemplate virtualBarrelCreatedMessage;
+  final String noVirtualBarrelMessage;
+  final String barrelInventoryTitle;
+  final String barrelProtectedBreakMessage;
+  final String barrelProtectedOpenMessage;
+
+  Settings(ConfigurationSection config, Logger logger) {
+    removeOnEmpty = config.getBoolean("removeOnEmpty");
+    removeOnEmptyWithoutPhysics = config.getBoolean("removeOnEmptyWithoutPhysics");
+    removeBarrelsAfterSeconds = config.getLong("removeBarrelsAfterSeconds", -1);
+    protectFromOtherPlayers = config.getBoolean("protectFromOtherPlayers");
+    permissionCacheSeconds = Math.max(0, config.getLong("permissionCacheSeconds"));
+    clickPolicy = new ClickPolicy(config.getStringList("clickPolicy.allowAnywhere"),
+        config.getStringList("clickPolicy.allowInBarrel"),
+        config.getStringList("clickPolicy.allowOutsideBarrel"), logger);
+    virtualStorage = "virtual".equalsIgnoreCase(config.getString("storageMode"));
+    barrelSearchRadius = Math.max(0, config.getInt("barrelSearchRadius"));
+    consolidateDeathsRadius = Math.max(0, config.getInt("consolidateDeathsRadius"));
+    mergeDropStacks = config.getBoolean("mergeDropStacks");
+    deathQueueMaxTickMillis = config.getDouble("deathQueueMaxTickMillis");
+    cleanupMaxChunkLoads = config.getInt("cleanupMaxChunkLoads");
+    cleanupMaxTickMillis = config.getDouble("cleanupMaxTickMillis");
+    sweepChunksPerTick = config.getInt("sweepChunksPerTick");
+    sweepMaxTickMicros = config.getLong("sweepMaxTickMicros");
+    metricsCustomCharts = config.getBoolean("metricsCustomCharts");
+    scanChunksForUnindexedBarrels = config.getBoolean("scanChunksForUnindexedBarrels");
+    journalEnabled = config.getBoolean("journalEnabled");
+    journalRetentionDays = config.getInt("journalRetentionDays");
+    journalQueueSize = config.getInt("journalQueueSize");
+    compressStoredItems = config.getBoolean("compressStoredItems");
+    recordTimings = config.getBoolean("recordTimings");
+
+    expiresText = removeBarrelsAfterSeconds > 0
+        ? Util.formatDuration(removeBarrelsAfterSeconds)
+        : "never";
+    // Older configs use {0}, {1}, {2} for the coordinates.
+    deathLocationMessage = MessageTemplate.compile(config.getString("messages.deathLocation"),
+        MessageTemplate.Placeholder.X, MessageTemplate.Placeholder.Y,
+        MessageTemplate.Placeholder.Z);
+    barrelCreatedMessage = MessageTemplate.compile(config.getString("messages.barrelCreated"));
+    virtualBarrelCreatedMessage =
+        MessageTemplate.compile(config.getString("messages.virtualBarrelCreated"));
+    noVirtualBarrelMessage = config.getString("messages.noVirtualBarrel");
+    barrelInventoryTitle = config.getString("messages.barrelInventoryTitle");
+    barrelProtectedBreakMessage = config.getString("messages.barrelProtectedBreak");
+    barrelProtectedOpenMessage = config.getString("messages.barrelProtectedOpen");
+  }
+}
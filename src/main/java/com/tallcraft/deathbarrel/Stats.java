@@ -0,0 +1,167 @@
+package com.tallcraft.deathbarrel;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Low overhead counters and timings for the plugin's event handlers and tasks.
+ * Timers and counters may be updated and read from any thread, e.g. region
+ * threads on Folia or bStats.
+ */
+public class Stats {
+  // Returned by start() while timings are disabled.
+  private static final long NOT_TIMED = Long.MIN_VALUE;
+
+  final AtomicLong barrelsCreated = new AtomicLong();
+  final AtomicLong barrelsExpired = new AtomicLong();
+  final AtomicLong barrelsEmptied = new AtomicLong();
+
+  private final Map<Handler, Timer> timers = new EnumMap<>(Handler.class);
+  // Timings can be turned off, counters are always kept.
+  private volatile boolean timingsEnabled = true;
+
+  Stats() {
+    for (Handler handler : Handler.values()) {
+      timers.put(handler, new Timer());
+    }
+  }
+
+  void setTimingsEnabled(boolean timingsEnabled) {
+    this.timingsEnabled = timingsEnabled;
+  }
+
+  boolean isTimingsEnabled() {
+    return timingsEnabled;
+  }
+
+  /**
+   * Start timing an invocation of a handler. Does not read the clock if
+   * timings are disabled.
+   *
+   * @return Value to pass to {@link #record(Handler, long)}.
+   */
+  long start() {
+    return timingsEnabled ? System.nanoTime() : NOT_TIMED;
+  }
+
+  /**
+   * Record one invocation of a handler.
+   *
+   * @param handler    - Handler which was invoked.
+   * @param startNanos - Value of {@link System#nanoTime()} when the invocation
+   *                   started, or as returned by {@link #start()}.
+   */
+  void record(Handler handler, long startNanos) {
+    if (timingsEnabled && startNanos != NOT_TIMED) {
+      timers.get(handler).record(startNanos);
+    }
+  }
+
+  Timer getTimer(Handler handler) {
+    return timers.get(handler);
+  }
+
+  /**
+   * Instrumented event handlers and tasks.
+   */
+  enum Handler {
+    PLAYER_DEATH("onPlayerDeathEvent"),
+    BLOCK_BREAK("onBlockBreakEvent"),
+    BLOCK_BROKEN_MONITOR("onBlockBrokenMonitor"),
+    ENTITY_EXPLODE("onExplode(EntityExplodeEvent)"),
+    BLOCK_EXPLODE("onExplode(BlockExplodeEvent)"),
+    INVENTORY_OPEN("onInventoryOpen"),
+    INVENTORY_CLOSE("onInventoryClose"),
+    INVENTORY_MOVE_ITEM("onInventoryMoveItem"),
+    INVENTORY_CLICK("onInventoryClickEvent"),
+    INVENTORY_DRAG("onInventoryDragEvent"),
+    CHUNK_LOAD("onChunkLoad"),
+    PLAYER_QUIT("onPlayerQuit"),
+    PLAYER_CHANGED_WORLD("onPlayerChangedWorld"),
+    CLEANUP_TASK("BarrelCleanupTask"),
+    CHUNK_SWEEP("LoadedChunkSweeper"),
+    DEATH_QUEUE("DeathQueue");
+
+    private final String displayName;
+
+    Handler(String displayName) {
+      this.displayName = displayName;
+    }
+
+    String getDisplayName() {
+      return displayName;
+    }
+  }
+
+  /**
+   * Invocation count and duration of a handler. Keeps a sample of recent
+   * durations for percentiles. Recording does not take locks, so handlers
+   * running on several threads don't wait for each other.
+   */
+  public static class Timer {
+    private static final int SAMPLE_COUNT = 1024;
+    private static final long NO_SAMPLE = -1;
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    // Each duration replaces a random sample, so the samples are the recent
+    // durations without a shared position to update. Unused slots are
+    // NO_SAMPLE.
+    private final AtomicLongArray samples = new AtomicLongArray(SAMPLE_COUNT);
+
+    Timer() {
+      for (int i = 0; i < SAMPLE_COUNT; i++) {
+        samples.set(i, NO_SAMPLE);
+      }
+    }
+
+    /**
+     * Record one invocation.
+     *
+     * @param startNanos - Value of {@link System#nanoTime()} when the invocation
+     *                   started.
+     */
+    void record(long startNanos) {
+      long duration = Math.max(0, System.nanoTime() - startNanos);
+      samples.lazySet(ThreadLocalRandom.current().nextInt(SAMPLE_COUNT), duration);
+      count.increment();
+      totalNanos.add(duration);
+    }
+
+    long getCount() {
+      return count.sum();
+    }
+
+    long getTotalNanos() {
+      return totalNanos.sum();
+    }
+
+    /**
+     * Get a percentile of the recent durations.
+     *
+     * @param percentile - Percentile between 0 and 100.
+     * @return Duration in nanoseconds or 0 if there were no invocations yet.
+     */
+    long getPercentileNanos(double percentile) {
+      long[] sorted = new long[SAMPLE_COUNT];
+      int size = 0;
+      for (int i = 0; i < SAMPLE_COUNT; i++) {
+        long sample = samples.get(i);
+        if (sample != NO_SAMPLE) {
+          sorted[size++] = sample;
+        }
+      }
+      if (size == 0) {
+        return 0;
+      }
+      Arrays.sort(sorted, 0, size);
+      int index = (int) Math.ceil(percentile / 100 * size) - 1;
+      return sorted[Math.max(0, Math.min(size - 1, index))];
+    }
+  }
+}
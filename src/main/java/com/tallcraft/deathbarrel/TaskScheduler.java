@@ -0,0 +1,207 @@
+package com.tallcraft.deathbarrel;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.function.Consumer;
+
+import org.bukkit.Location;
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Entity;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * Runs tasks on the Bukkit scheduler or, on region threaded servers (Folia),
+ * on the thread owning the region or entity the task works on. The Folia
+ * schedulers are not part of the Bukkit API, so they are looked up by
+ * reflection.
+ *
+ * <p>On Bukkit all methods except {@link #runAsync} run the task on the main
+ * thread.
+ */
+public class TaskScheduler {
+  private static final String FOLIA_CLASS = "io.papermc.paper.threadedregions.RegionizedServer";
+  private static final String SCHEDULER_PACKAGE = "io.papermc.paper.threadedregions.scheduler.";
+
+  private final Plugin plugin;
+  private final boolean folia;
+
+  // Folia schedulers and their methods. Only set when running on Folia.
+  private Object globalScheduler;
+  private Object regionScheduler;
+  private Object asyncScheduler;
+  private Method globalExecute;
+  private Method globalRunAtFixedRate;
+  private Method regionExecute;
+  private Method asyncRunNow;
+  private Method entityGetScheduler;
+  private Method entityExecute;
+  private Method taskCancel;
+
+  TaskScheduler(Plugin plugin) {
+    this.plugin = plugin;
+    this.folia = isClassPresent(FOLIA_CLASS);
+    if (folia) {
+      initFolia();
+    }
+  }
+
+  private static boolean isClassPresent(String name) {
+    try {
+      Class.forName(name);
+      return true;
+    } catch (ClassNotFoundException e) {
+      return false;
+    }
+  }
+
+  private void initFolia() {
+    try {
+      Server server = plugin.getServer();
+      Class<?> globalClass = Class.forName(SCHEDULER_PACKAGE + "GlobalRegionScheduler");
+      Class<?> regionClass = Class.forName(SCHEDULER_PACKAGE + "RegionScheduler");
+      Class<?> asyncClass = Class.forName(SCHEDULER_PACKAGE + "AsyncScheduler");
+      Class<?> entityClass = Class.forName(SCHEDULER_PACKAGE + "EntityScheduler");
+      Class<?> taskClass = Class.forName(SCHEDULER_PACKAGE + "ScheduledTask");
+
+      globalScheduler = Server.class.getMethod("getGlobalRegionScheduler").invoke(server);
+      regionScheduler = Server.class.getMethod("getRegionScheduler").invoke(server);
+      asyncScheduler = Server.class.getMethod("getAsyncScheduler").invoke(server);
+
+      globalExecute = globalClass.getMethod("execute", Plugin.class, Runnable.class);
+      globalRunAtFixedRate = globalClass.getMethod("runAtFixedRate", Plugin.class,
+          Consumer.class, long.class, long.class);
+      regionExecute = regionClass.getMethod("execute", Plugin.class, World.class, int.class,
+          int.class, Runnable.class);
+      asyncRunNow = asyncClass.getMethod("runNow", Plugin.class, Consumer.class);
+      entityGetScheduler = Entity.class.getMethod("getScheduler");
+      entityExecute = entityClass.getMethod("execute", Plugin.class, Runnable.class,
+          Runnable.class, long.class);
+      taskCancel = taskClass.getMethod("cancel");
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("Could not access the Folia schedulers", e);
+    }
+  }
+
+  private static Object invoke(Method method, Object target, Object... args) {
+    try {
+      return method.invoke(target, args);
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    } catch (InvocationTargetException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IllegalStateException(cause);
+    }
+  }
+
+  /**
+   * @return true if running on a region threaded server.
+   */
+  boolean isFolia() {
+    return folia;
+  }
+
+  /**
+   * Run a task on the main thread, or the global region thread on Folia.
+   *
+   * @param task - Task to run.
+   */
+  void run(Runnable task) {
+    if (folia) {
+      invoke(globalExecute, globalScheduler, plugin, task);
+    } else {
+      plugin.getServer().getScheduler().runTask(plugin, task);
+    }
+  }
+
+  /**
+   * Run a task repeatedly on the main thread, or the global region thread on
+   * Folia. The global region does not own any chunks, world access has to be
+   * handed to {@link #runAt}.
+   *
+   * @param task   - Task to run.
+   * @param delay  - Ticks before the first run.
+   * @param period - Ticks between runs.
+   * @return Handle to cancel the task.
+   */
+  Task runTimer(Runnable task, long delay, long period) {
+    if (folia) {
+      Consumer<Object> consumer = scheduledTask -> task.run();
+      Object scheduledTask = invoke(globalRunAtFixedRate, globalScheduler, plugin, consumer,
+          Math.max(1, delay), period);
+      return () -> invoke(taskCancel, scheduledTask);
+    }
+    BukkitTask bukkitTask = plugin.getServer().getScheduler().runTaskTimer(plugin, task, delay,
+        period);
+    return bukkitTask::cancel;
+  }
+
+  /**
+   * Run a task on the thread owning a chunk.
+   *
+   * @param world  - World of the chunk.
+   * @param chunkX - Chunk x coordinate.
+   * @param chunkZ - Chunk z coordinate.
+   * @param task   - Task to run.
+   */
+  void runAt(World world, int chunkX, int chunkZ, Runnable task) {
+    if (folia) {
+      invoke(regionExecute, regionScheduler, plugin, world, chunkX, chunkZ, task);
+    } else {
+      plugin.getServer().getScheduler().runTask(plugin, task);
+    }
+  }
+
+  /**
+   * Run a task on the thread owning a location.
+   *
+   * @param location - Location the task works on.
+   * @param task     - Task to run.
+   */
+  void runAt(Location location, Runnable task) {
+    runAt(location.getWorld(), location.getBlockX() >> 4, location.getBlockZ() >> 4, task);
+  }
+
+  /**
+   * Run a task on the thread owning a command sender. Entities are followed
+   * across regions, other senders such as the console use the global region.
+   * Tasks for entities which have been removed in the meantime are dropped.
+   *
+   * @param sender - Sender the task works on.
+   * @param task   - Task to run.
+   */
+  void runFor(CommandSender sender, Runnable task) {
+    if (folia && sender instanceof Entity) {
+      Object entityScheduler = invoke(entityGetScheduler, sender);
+      invoke(entityExecute, entityScheduler, plugin, task, null, 1L);
+    } else {
+      run(task);
+    }
+  }
+
+  /**
+   * Run a task on a separate thread.
+   *
+   * @param task - Task to run. Must not access the world.
+   */
+  void runAsync(Runnable task) {
+    if (folia) {
+      Consumer<Object> consumer = scheduledTask -> task.run();
+      invoke(asyncRunNow, asyncScheduler, plugin, consumer);
+    } else {
+      plugin.getServer().getScheduler().runTaskAsynchronously(plugin, task);
+    }
+  }
+
+  /**
+   * Handle of a repeating task.
+   */
+  interface Task {
+    void cancel();
+  }
+}
@@ -1,28 +1,124 @@
 package com.tallcraft.deathbarrel;
 
-import org.apache.commons.lang.StringUtils;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bukkit.inventory.ItemStack;
 
 public class Util {
   /**
-  * Replace args in raw to args.
-  *
-  * @param raw  text
-  * @param args args
-  * @return filled text
-  */
-  public static String fillArgs(String raw, String... args) {
-    if (raw == null) {
-      return "Invalid message: null";
+   * Merge partial stacks of similar items, up to their max stack size. The
+   * list is modified in place and keeps the order of first occurrence.
+   *
+   * @param items - Items to merge. May contain null entries, which are removed.
+   */
+  public static void mergeSimilarStacks(List<ItemStack> items) {
+    List<ItemStack> merged = new ArrayList<>(items.size());
+    // Stacks in merged which still have room.
+    List<ItemStack> partial = new ArrayList<>();
+
+    for (ItemStack item : items) {
+      if (item == null || item.getAmount() <= 0) {
+        continue;
+      }
+      int maxStackSize = item.getMaxStackSize();
+      if (item.getAmount() >= maxStackSize) {
+        merged.add(item);
+        continue;
+      }
+
+      for (int i = 0; i < partial.size() && item.getAmount() > 0; i++) {
+        ItemStack target = partial.get(i);
+        if (!target.isSimilar(item)) {
+          continue;
+        }
+        int moved = Math.min(maxStackSize - target.getAmount(), item.getAmount());
+        target.setAmount(target.getAmount() + moved);
+        item.setAmount(item.getAmount() - moved);
+        if (target.getAmount() >= maxStackSize) {
+          partial.remove(i--);
+        }
+      }
+
+      if (item.getAmount() > 0) {
+        merged.add(item);
+        partial.add(item);
+      }
+    }
+
+    items.clear();
+    items.addAll(merged);
+  }
+
+  /**
+   * Format a duration for display in messages, e.g. "1h 30m".
+   *
+   * @param seconds - Duration in seconds
+   * @return formatted duration
+   */
+  public static String formatDuration(long seconds) {
+    long hours = seconds / 3600;
+    long minutes = seconds % 3600 / 60;
+    long remainingSeconds = seconds % 60;
+
+    StringBuilder builder = new StringBuilder();
+    if (hours > 0) {
+      builder.append(hours).append('h');
     }
-    if (raw.isEmpty()) {
-      return "";
+    if (minutes > 0) {
+      builder.append(builder.length() > 0 ? " " : "").append(minutes).append('m');
     }
-    if (args == null) {
-      return raw;
+    if (remainingSeconds > 0 || builder.length() == 0) {
+      builder.append(builder.length() > 0 ? " " : "").append(remainingSeconds).append('s');
     }
-    for (int i = 0; i < args.length; i++) {
-      raw = StringUtils.replace(raw, "{" + i + "}", args[i] == null ? "" : args[i]);
+    return builder.toString();
+  }
+
+  /**
+   * Parse a duration entered by a user, e.g. "90", "30m" or "7d". Numbers
+   * without a unit are seconds.
+   *
+   * @param text - Duration to parse
+   * @return duration in seconds or -1 if the text is not a valid duration
+   */
+  public static long parseDuration(String text) {
+    if (text.isEmpty()) {
+      return -1;
     }
-    return raw;
-}
+    long unit;
+    switch (Character.toLowerCase(text.charAt(text.length() - 1))) {
+      case 's':
+        unit = 1;
+        break;
+      case 'm':
+        unit = 60;
+        break;
+      case 'h':
+        unit = 3600;
+        break;
+      case 'd':
+        unit = 86400;
+        break;
+      default:
+        unit = 0;
+    }
+    String number = unit == 0 ? text : text.substring(0, text.length() - 1);
+    try {
+      long value = Long.parseLong(number);
+      return value < 0 ? -1 : value * Math.max(1, unit);
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Pack chunk coordinates into a single long, e.g. for use as a map key.
+   *
+   * @param chunkX - Chunk x coordinate
+   * @param chunkZ - Chunk z coordinate
+   * @return packed chunk key
+   */
+  public static long chunkKey(int chunkX, int chunkZ) {
+    return ((long) chunkX & 0xffffffffL) | (((long) chunkZ & 0xffffffffL) << 32);
+  }
 }
@@ -0,0 +1,160 @@
+package com.tallcraft.deathbarrel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.bukkit.Bukkit;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.InventoryHolder;
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * Death drops stored by the plugin instead of in a barrel block. Opened by the
+ * owner as a virtual inventory.
+ */
+public class VirtualBarrel implements InventoryHolder {
+  // Virtual inventories can be bigger than real barrels.
+  static final int CAPACITY = 54;
+
+  private final UUID owner;
+  private final long createdAt;
+  private final String world;
+  private final int x;
+  private final int y;
+  private final int z;
+  // Copy of the stored items, updated from the inventory by syncContents().
+  private volatile ItemStack[] contents;
+  // Last converted contents, reused by saves while the contents don't change.
+  private volatile RawContents rawContents;
+  private Inventory inventory;
+
+  VirtualBarrel(UUID owner, long createdAt, String world, int x, int y, int z,
+                ItemStack[] contents) {
+    this.owner = owner;
+    this.createdAt = createdAt;
+    this.world = world;
+    this.x = x;
+    this.y = y;
+    this.z = z;
+    this.contents = contents;
+  }
+
+  UUID getOwner() {
+    return owner;
+  }
+
+  long getCreatedAt() {
+    return createdAt;
+  }
+
+  String getWorld() {
+    return world;
+  }
+
+  int getX() {
+    return x;
+  }
+
+  int getY() {
+    return y;
+  }
+
+  int getZ() {
+    return z;
+  }
+
+  /**
+   * @return Stored items, as of the last {@link #syncContents()} if the
+   *         inventory is open.
+   */
+  ItemStack[] getContents() {
+    return contents;
+  }
+
+  /**
+   * Get contents of this barrel in the codec's stored form. The result is
+   * cached, so saves only take apart barrels whose contents changed. Safe to
+   * call off the main thread, contents arrays are replaced rather than
+   * modified.
+   *
+   * @param contents - Contents to convert, as returned by
+   *                 {@link #getContents()}.
+   * @return The contents in stored form.
+   */
+  ItemCodec.RawItems toRawContents(ItemStack[] contents) {
+    RawContents cached = rawContents;
+    if (cached != null && cached.contents == contents) {
+      return cached.items;
+    }
+    List<ItemStack> items = new ArrayList<>(contents.length);
+    for (ItemStack item : contents) {
+      if (item != null) {
+        items.add(item);
+      }
+    }
+    ItemCodec.RawItems rawItems = ItemCodec.toRaw(items);
+    rawContents = new RawContents(contents, rawItems);
+    return rawItems;
+  }
+
+  boolean isEmpty() {
+    for (ItemStack item : getContents()) {
+      if (item != null) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Copy the contents of the open inventory back, e.g. after a player took
+   * items. The items are cloned, so the copy can be read from other threads.
+   */
+  void syncContents() {
+    if (inventory == null) {
+      return;
+    }
+    ItemStack[] copy = inventory.getContents();
+    for (int i = 0; i < copy.length; i++) {
+      if (copy[i] != null) {
+        copy[i] = copy[i].clone();
+      }
+    }
+    contents = copy;
+  }
+
+  /**
+   * Get the inventory for this barrel. It is created on first access and kept
+   * while the barrel exists, so all viewers share it.
+   *
+   * @param title - Inventory title.
+   * @return The inventory.
+   */
+  Inventory getInventory(String title) {
+    if (inventory == null) {
+      int size = Math.max(9, Math.min(CAPACITY, (contents.length + 8) / 9 * 9));
+      inventory = Bukkit.createInventory(this, size, title);
+      inventory.setContents(contents);
+    }
+    return inventory;
+  }
+
+  @Override
+  public Inventory getInventory() {
+    return inventory;
+  }
+
+  /**
+   * Stored form of a contents array.
+   */
+  private static final class RawContents {
+    private final ItemStack[] contents;
+    private final ItemCodec.RawItems items;
+
+    private RawContents(ItemStack[] contents, ItemCodec.RawItems items) {
+      this.contents = contents;
+      this.items = items;
+    }
+  }
+}
@@ -0,0 +1,398 @@
+package com.tallcraft.deathbarrel;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Level;
+
+import org.bukkit.Location;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.HumanEntity;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * Plugin owned storage for death drops when the virtual storage mode is
+ * enabled. Barrels are kept per player, oldest first, and persisted to disk.
+ */
+public class VirtualBarrelStore {
+  private static final String DEATHS_KEY = "deaths";
+  // Strings of the items of all barrels, stored once per file.
+  private static final String DICTIONARY_KEY = "dictionary";
+
+  private final DeathBarrel plugin;
+  private final File file;
+  private final Map<UUID, List<VirtualBarrel>> barrels = new HashMap<>();
+  // Inventories created for virtual barrels, to identify them without holder lookups.
+  private final Map<Inventory, VirtualBarrel> inventories = new IdentityHashMap<>();
+  private boolean dirty = false;
+  // Snapshots are numbered, so an older one written late by another thread
+  // does not replace a newer one. The last written number is guarded by the
+  // write lock.
+  private long snapshotNumber = 0;
+  private long writtenSnapshotNumber = 0;
+  private final Object writeLock = new Object();
+
+  VirtualBarrelStore(DeathBarrel plugin, File file) {
+    this.plugin = plugin;
+    this.file = file;
+  }
+
+  /**
+   * Store death drops in virtual barrels.
+   *
+   * @param owner    - UUID of the player who died.
+   * @param drops    - Items to store. Split into multiple barrels if they don't
+   *                 fit into one.
+   * @param location - Death location, for display.
+   * @return The number of virtual barrels created.
+   */
+  synchronized int store(UUID owner, List<ItemStack> drops, Location location) {
+    ItemStack[] items = drops.stream().filter(item -> item != null).toArray(ItemStack[]::new);
+    if (items.length == 0) {
+      return 0;
+    }
+
+    long createdAt = Instant.now().getEpochSecond();
+    String world = location.getWorld() == null ? "" : location.getWorld().getName();
+    List<VirtualBarrel> ownerBarrels = barrels.computeIfAbsent(owner, k -> new ArrayList<>());
+    int count = 0;
+    for (int i = 0; i < items.length; i += VirtualBarrel.CAPACITY) {
+      ItemStack[] contents = Arrays.copyOfRange(items, i,
+          Math.min(i + VirtualBarrel.CAPACITY, items.length));
+      ownerBarrels.add(new VirtualBarrel(owner, createdAt, world, location.getBlockX(),
+                                         location.getBlockY(), location.getBlockZ(), contents));
+      count++;
+    }
+    dirty = true;
+    return count;
+  }
+
+  /**
+   * @param owner - Player UUID.
+   * @return Copy of the player's virtual barrels, oldest first.
+   */
+  synchronized List<VirtualBarrel> getBarrels(UUID owner) {
+    List<VirtualBarrel> ownerBarrels = barrels.get(owner);
+    if (ownerBarrels == null) {
+      return Collections.emptyList();
+    }
+    return new ArrayList<>(ownerBarrels);
+  }
+
+  /**
+   * Get the inventory of a virtual barrel, creating it on first access.
+   *
+   * @param barrel - Barrel to get the inventory for.
+   * @param title  - Inventory title.
+   * @return The inventory, shared by all viewers.
+   */
+  synchronized Inventory getInventory(VirtualBarrel barrel, String title) {
+    Inventory inventory = barrel.getInventory(title);
+    inventories.put(inventory, barrel);
+    return inventory;
+  }
+
+  /**
+   * Find the virtual barrel an inventory belongs to.
+   *
+   * @param inventory - Inventory to check.
+   * @return The barrel or null if the inventory is not a virtual barrel.
+   */
+  synchronized VirtualBarrel getBarrel(Inventory inventory) {
+    return inventories.isEmpty() ? null : inventories.get(inventory);
+  }
+
+  /**
+   * Remove a virtual barrel, closing the inventory for anyone viewing it.
+   *
+   * @param barrel - Barrel to remove.
+   */
+  synchronized void remove(VirtualBarrel barrel) {
+    List<VirtualBarrel> ownerBarrels = barrels.get(barrel.getOwner());
+    if (ownerBarrels == null || !ownerBarrels.remove(barrel)) {
+      return;
+    }
+    if (ownerBarrels.isEmpty()) {
+      barrels.remove(barrel.getOwner());
+    }
+    closeViews(barrel);
+    dirty = true;
+  }
+
+  /**
+   * Copy the contents of a barrel's open inventory back into the store, e.g.
+   * after items have been taken out. The inventory is part of its viewer's
+   * state, so on Folia this has to run on the thread owning the viewer.
+   *
+   * @param barrel - Barrel to sync.
+   */
+  synchronized void sync(VirtualBarrel barrel) {
+    barrel.syncContents();
+    dirty = true;
+  }
+
+  /**
+   * Copy the contents of all open inventories back into the store. Only safe
+   * while no other thread touches the inventories, e.g. on shutdown.
+   */
+  synchronized void syncAll() {
+    for (VirtualBarrel barrel : inventories.values()) {
+      barrel.syncContents();
+    }
+    dirty = true;
+  }
+
+  /**
+   * Remove all virtual barrels older than the given age.
+   *
+   * @param maxAgeSeconds - Maximum age of barrels to keep.
+   * @return Number of barrels removed.
+   */
+  synchronized int removeExpired(long maxAgeSeconds) {
+    long oldestCreatedAt = Instant.now().getEpochSecond() - maxAgeSeconds;
+    int removed = 0;
+    Iterator<List<VirtualBarrel>> ownerIterator = barrels.values().iterator();
+    while (ownerIterator.hasNext()) {
+      List<VirtualBarrel> ownerBarrels = ownerIterator.next();
+      // Barrels are ordered by creation time, so only the head can be expired.
+      while (!ownerBarrels.isEmpty() && ownerBarrels.get(0).getCreatedAt() <= oldestCreatedAt) {
+        closeViews(ownerBarrels.remove(0));
+        removed++;
+      }
+      if (ownerBarrels.isEmpty()) {
+        ownerIterator.remove();
+      }
+    }
+    if (removed > 0) {
+      dirty = true;
+    }
+    return removed;
+  }
+
+  /**
+   * Close the inventory of a removed barrel for all viewers. Each viewer is
+   * closed on the thread owning it, this may be called from any thread. The
+   * inventory stays known until the viewers are closed, see
+   * {@link #release(VirtualBarrel)}, so clicks in it are still restricted.
+   */
+  private void closeViews(VirtualBarrel barrel) {
+    Inventory inventory = barrel.getInventory();
+    if (inventory == null) {
+      return;
+    }
+    List<HumanEntity> viewers = new ArrayList<>(inventory.getViewers());
+    if (viewers.isEmpty()) {
+      inventories.remove(inventory);
+      return;
+    }
+    for (HumanEntity viewer : viewers) {
+      plugin.getTaskScheduler().runFor(viewer, viewer::closeInventory);
+    }
+  }
+
+  /**
+   * Forget the inventory of a removed barrel once nobody views it anymore.
+   * Called after its inventory has been closed.
+   *
+   * @param barrel - Barrel whose inventory was closed.
+   */
+  synchronized void release(VirtualBarrel barrel) {
+    Inventory inventory = barrel.getInventory();
+    if (inventory == null || !inventory.getViewers().isEmpty()) {
+      return;
+    }
+    List<VirtualBarrel> ownerBarrels = barrels.get(barrel.getOwner());
+    if (ownerBarrels == null || !ownerBarrels.contains(barrel)) {
+      inventories.remove(inventory);
+    }
+  }
+
+  /**
+   * Load the store from disk, replacing the current contents.
+   */
+  synchronized void load() {
+    barrels.clear();
+    dirty = false;
+
+    if (!file.exists()) {
+      return;
+    }
+
+    YamlConfiguration yaml = new YamlConfiguration();
+    try {
+      yaml.load(file);
+    } catch (IOException | InvalidConfigurationException e) {
+      plugin.getLogger().log(Level.SEVERE, "Could not load virtual barrels from " + file, e);
+      return;
+    }
+
+    ConfigurationSection deaths = yaml.getConfigurationSection(DEATHS_KEY);
+    if (deaths == null) {
+      return;
+    }
+    ItemCodec.Dictionary dictionary = null;
+    if (yaml.isString(DICTIONARY_KEY)) {
+      try {
+        dictionary = ItemCodec.Dictionary.decode(
+            Base64.getDecoder().decode(yaml.getString(DICTIONARY_KEY)));
+      } catch (IllegalArgumentException | IOException e) {
+        plugin.getLogger().log(Level.SEVERE, "Could not load virtual barrels from " + file, e);
+        return;
+      }
+    }
+    for (String ownerKey : deaths.getKeys(false)) {
+      UUID owner;
+      try {
+        owner = UUID.fromString(ownerKey);
+      } catch (IllegalArgumentException e) {
+        plugin.getLogger().warning("Skipping virtual barrels of invalid owner " + ownerKey);
+        continue;
+      }
+      List<VirtualBarrel> ownerBarrels = new ArrayList<>();
+      for (Object entry : deaths.getList(ownerKey, Collections.emptyList())) {
+        VirtualBarrel barrel = deserialize(owner, entry, dictionary);
+        if (barrel != null) {
+          ownerBarrels.add(barrel);
+        }
+      }
+      if (!ownerBarrels.isEmpty()) {
+        barrels.put(owner, ownerBarrels);
+      }
+    }
+  }
+
+  /**
+   * Save the store to disk if it has changed since the last save.
+   *
+   * @param async - If true the file is written on a separate thread. The
+   *              barrels are always copied on the calling thread, encoding
+   *              their items happens on the writing thread.
+   */
+  synchronized void save(boolean async) {
+    if (!dirty) {
+      return;
+    }
+    dirty = false;
+
+    // Only the barrel lists and content arrays are copied under the lock,
+    // which inventory clicks wait for. Contents are replaced, not modified,
+    // when they change.
+    Map<UUID, List<Snapshot>> snapshot = new HashMap<>();
+    for (Map.Entry<UUID, List<VirtualBarrel>> entry : barrels.entrySet()) {
+      List<Snapshot> ownerSnapshot = new ArrayList<>(entry.getValue().size());
+      for (VirtualBarrel barrel : entry.getValue()) {
+        ownerSnapshot.add(new Snapshot(barrel, barrel.getContents()));
+      }
+      snapshot.put(entry.getKey(), ownerSnapshot);
+    }
+    long number = ++snapshotNumber;
+    boolean compress = plugin.getSettings().compressStoredItems;
+
+    Runnable task = () -> write(number, toYaml(snapshot, compress));
+    if (async) {
+      plugin.getTaskScheduler().runAsync(task);
+    } else {
+      task.run();
+    }
+  }
+
+  private static String toYaml(Map<UUID, List<Snapshot>> snapshot, boolean compress) {
+    YamlConfiguration yaml = new YamlConfiguration();
+    ItemCodec.Dictionary dictionary = new ItemCodec.Dictionary();
+    ConfigurationSection deaths = yaml.createSection(DEATHS_KEY);
+    for (Map.Entry<UUID, List<Snapshot>> entry : snapshot.entrySet()) {
+      List<Map<String, Object>> serialized = new ArrayList<>();
+      for (Snapshot barrel : entry.getValue()) {
+        serialized.add(serialize(barrel, dictionary));
+      }
+      deaths.set(entry.getKey().toString(), serialized);
+    }
+    yaml.set(DICTIONARY_KEY,
+        Base64.getEncoder().encodeToString(dictionary.encode(compress)));
+    return yaml.saveToString();
+  }
+
+  private void write(long number, String data) {
+    synchronized (writeLock) {
+      if (number < writtenSnapshotNumber) {
+        return;
+      }
+      writtenSnapshotNumber = number;
+      try {
+        File parent = file.getParentFile();
+        if (parent != null) {
+          parent.mkdirs();
+        }
+        Files.write(file.toPath(), data.getBytes(StandardCharsets.UTF_8));
+      } catch (IOException e) {
+        plugin.getLogger().log(Level.SEVERE, "Could not save virtual barrels to " + file, e);
+      }
+    }
+  }
+
+  private static Map<String, Object> serialize(Snapshot snapshot,
+      ItemCodec.Dictionary dictionary) {
+    VirtualBarrel barrel = snapshot.barrel;
+    Map<String, Object> map = new HashMap<>();
+    map.put("createdAt", barrel.getCreatedAt());
+    map.put("world", barrel.getWorld());
+    map.put("x", barrel.getX());
+    map.put("y", barrel.getY());
+    map.put("z", barrel.getZ());
+    // With the strings in the shared dictionary only varints are left,
+    // deflating each barrel on its own does not pay off.
+    map.put("items", Base64.getEncoder().encodeToString(ItemCodec.encode(
+        barrel.toRawContents(snapshot.contents), false, dictionary)));
+    return map;
+  }
+
+  private VirtualBarrel deserialize(UUID owner, Object entry,
+      ItemCodec.Dictionary dictionary) {
+    if (!(entry instanceof Map)) {
+      return null;
+    }
+    Map<?, ?> map = (Map<?, ?>) entry;
+    try {
+      List<ItemStack> items = ItemCodec.decode(
+          Base64.getDecoder().decode((String) map.get("items")), dictionary,
+          plugin.getLogger());
+      items.removeIf(item -> item == null);
+      return new VirtualBarrel(owner, ((Number) map.get("createdAt")).longValue(),
+          String.valueOf(map.get("world")), ((Number) map.get("x")).intValue(),
+          ((Number) map.get("y")).intValue(), ((Number) map.get("z")).intValue(),
+          items.toArray(new ItemStack[0]));
+    } catch (ClassCastException | NullPointerException | IllegalArgumentException
+        | IOException e) {
+      plugin.getLogger().warning("Skipping invalid virtual barrel of " + owner);
+      return null;
+    }
+  }
+
+  /**
+   * Barrel and its contents at the time of a save.
+   */
+  private static final class Snapshot {
+    private final VirtualBarrel barrel;
+    private final ItemStack[] contents;
+
+    private Snapshot(VirtualBarrel barrel, ItemStack[] contents) {
+      this.barrel = barrel;
+      this.contents = contents;
+    }
+  }
+}
@@ -0,0 +1,99 @@
+package com.tallcraft.deathbarrel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.logging.Logger;
+
+import org.bukkit.event.inventory.InventoryAction;
+import org.junit.Test;
+
+/**
+ * Tests of the default click policy against the click rules it replaced.
+ */
+public class ClickPolicyTest {
+  private static final Logger LOGGER = Logger.getLogger("ClickPolicyTest");
+  private static final int BARREL_SIZE = 27;
+
+  private static ClickPolicy defaultPolicy() {
+    return new ClickPolicy(ClickPolicy.DEFAULT_ALLOW_ANYWHERE, ClickPolicy.DEFAULT_ALLOW_IN_BARREL,
+        ClickPolicy.DEFAULT_ALLOW_OUTSIDE_BARREL, LOGGER);
+  }
+
+  /**
+   * The click rules of versions before the click policy.
+   */
+  private static boolean legacyAllowed(InventoryAction action, boolean isContainerSlot) {
+    if (action.equals(InventoryAction.PICKUP_ALL)
+        || action.equals(InventoryAction.PICKUP_SOME)
+        || action.equals(InventoryAction.PICKUP_ONE)
+        || action.equals(InventoryAction.PICKUP_HALF)
+        || action.equals(InventoryAction.CLONE_STACK)
+        || action.equals(InventoryAction.COLLECT_TO_CURSOR)
+        || action.equals(InventoryAction.HOTBAR_MOVE_AND_READD)
+        || action.equals(InventoryAction.NOTHING)) {
+      return true;
+    }
+    if (action.equals(InventoryAction.MOVE_TO_OTHER_INVENTORY) && isContainerSlot) {
+      return true;
+    }
+    if ((action.equals(InventoryAction.SWAP_WITH_CURSOR)
+        || action.equals(InventoryAction.HOTBAR_SWAP))
+        && !isContainerSlot) {
+      return true;
+    }
+    boolean isItemPlace = action.equals(InventoryAction.PLACE_ALL)
+        || action.equals(InventoryAction.PLACE_ONE)
+        || action.equals(InventoryAction.PLACE_SOME);
+    return isItemPlace && !isContainerSlot;
+  }
+
+  @Test
+  public void defaultsMatchLegacyRules() {
+    ClickPolicy policy = defaultPolicy();
+    for (InventoryAction action : InventoryAction.values()) {
+      for (boolean inBarrel : new boolean[] {true, false}) {
+        assertEquals(action + (inBarrel ? " in barrel" : " outside barrel"),
+            legacyAllowed(action, inBarrel), policy.isAllowed(action, inBarrel));
+      }
+    }
+  }
+
+  @Test
+  public void unknownActionsAreIgnored() {
+    ClickPolicy policy = new ClickPolicy(Arrays.asList("pickup_all", "NOT_AN_ACTION"),
+        Collections.emptyList(), Collections.emptyList(), LOGGER);
+    assertTrue(policy.isAllowed(InventoryAction.PICKUP_ALL, true));
+    assertTrue(policy.isAllowed(InventoryAction.PICKUP_ALL, false));
+    assertFalse(policy.isAllowed(InventoryAction.PLACE_ALL, false));
+  }
+
+  @Test
+  public void dragInPlayerInventoryIsAllowed() {
+    assertTrue(defaultPolicy().isDragAllowed(Arrays.asList(27, 28, 62), BARREL_SIZE));
+  }
+
+  @Test
+  public void dragInBarrelIsCancelled() {
+    assertFalse(defaultPolicy().isDragAllowed(Arrays.asList(0, 1), BARREL_SIZE));
+    assertFalse(defaultPolicy().isDragAllowed(Collections.singletonList(26), BARREL_SIZE));
+  }
+
+  @Test
+  public void dragAcrossBarrelAndPlayerInventoryIsCancelled() {
+    // Older versions allowed this as long as one slot was outside the barrel,
+    // which let players put items into the barrel.
+    assertFalse(defaultPolicy().isDragAllowed(Arrays.asList(26, 27), BARREL_SIZE));
+  }
+
+  @Test
+  public void dragFollowsConfiguredPlaceRules() {
+    ClickPolicy policy = new ClickPolicy(Collections.emptyList(),
+        Collections.singletonList("PLACE_SOME"), Collections.emptyList(), LOGGER);
+    assertTrue(policy.isDragAllowed(Arrays.asList(0, 1), BARREL_SIZE));
+    assertFalse(policy.isDragAllowed(Arrays.asList(0, 27), BARREL_SIZE));
+  }
+}
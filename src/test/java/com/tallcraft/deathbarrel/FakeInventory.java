@@ -0,0 +1,157 @@
+package com.tallcraft.deathbarrel;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.bukkit.Location;
+import org.bukkit.entity.HumanEntity;
+import org.bukkit.event.inventory.InventoryType;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.InventoryHolder;
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * Inventory of the stub server. Only keeps the slots, there are no viewers.
+ * Methods not implemented here throw.
+ */
+abstract class FakeInventory implements Inventory {
+  private static final Constructor<? extends FakeInventory> CONSTRUCTOR = Fakes.constructor(
+      FakeInventory.class, InventoryType.class, int.class, InventoryHolder.class, Location.class);
+
+  private final InventoryType type;
+  private final InventoryHolder holder;
+  private final Location location;
+  private final ItemStack[] items;
+
+  FakeInventory(InventoryType type, int size, InventoryHolder holder, Location location) {
+    this.type = type;
+    this.holder = holder;
+    this.location = location;
+    this.items = new ItemStack[size];
+  }
+
+  /**
+   * Create an inventory.
+   *
+   * @param type     - Inventory type.
+   * @param size     - Number of slots.
+   * @param holder   - Holder or null.
+   * @param location - Location of the holder or null.
+   * @return The inventory.
+   */
+  static FakeInventory create(InventoryType type, int size, InventoryHolder holder,
+                              Location location) {
+    return Fakes.create(CONSTRUCTOR, type, size, holder, location);
+  }
+
+  @Override
+  public InventoryType getType() {
+    return type;
+  }
+
+  @Override
+  public int getSize() {
+    return items.length;
+  }
+
+  @Override
+  public InventoryHolder getHolder() {
+    return holder;
+  }
+
+  @Override
+  public Location getLocation() {
+    return location == null ? null : location.clone();
+  }
+
+  @Override
+  public List<HumanEntity> getViewers() {
+    return new ArrayList<>();
+  }
+
+  @Override
+  public ItemStack[] getContents() {
+    return items.clone();
+  }
+
+  @Override
+  public ItemStack[] getStorageContents() {
+    return items.clone();
+  }
+
+  @Override
+  public void setContents(ItemStack[] contents) {
+    if (contents.length > items.length) {
+      throw new IllegalArgumentException("Invalid inventory size; expected " + items.length
+          + " or less");
+    }
+    Arrays.fill(items, null);
+    System.arraycopy(contents, 0, items, 0, contents.length);
+  }
+
+  @Override
+  public void setStorageContents(ItemStack[] contents) {
+    setContents(contents);
+  }
+
+  @Override
+  public ItemStack getItem(int index) {
+    return items[index];
+  }
+
+  @Override
+  public void setItem(int index, ItemStack item) {
+    items[index] = item;
+  }
+
+  /**
+   * Put items into empty slots. Unlike Bukkit, stacks are not merged into
+   * similar ones.
+   */
+  @Override
+  public HashMap<Integer, ItemStack> addItem(ItemStack... added) {
+    HashMap<Integer, ItemStack> overflow = new HashMap<>();
+    for (int i = 0; i < added.length; i++) {
+      int slot = firstEmpty();
+      if (slot < 0) {
+        overflow.put(i, added[i]);
+      } else {
+        items[slot] = added[i];
+      }
+    }
+    return overflow;
+  }
+
+  @Override
+  public int firstEmpty() {
+    for (int i = 0; i < items.length; i++) {
+      if (items[i] == null) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    for (ItemStack item : items) {
+      if (item != null && !item.getType().isAir()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public void clear() {
+    Arrays.fill(items, null);
+  }
+
+  @Override
+  public void clear(int index) {
+    items[index] = null;
+  }
+}
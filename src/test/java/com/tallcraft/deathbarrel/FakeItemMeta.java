@@ -0,0 +1,166 @@
+package com.tallcraft.deathbarrel;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.bukkit.configuration.serialization.ConfigurationSerialization;
+import org.bukkit.configuration.serialization.SerializableAs;
+import org.bukkit.inventory.meta.Damageable;
+import org.bukkit.inventory.meta.ItemMeta;
+
+/**
+ * Item meta of the stub server. Keeps the entries of its serialized form and
+ * is serialized under the same alias as CraftBukkit's item meta. Only names,
+ * lore and damage have accessors, other entries are set with
+ * {@link #set(String, Object)}. Methods not implemented here throw.
+ *
+ * <p>Public, as Bukkit's deserialization calls {@link #deserialize(Map)}
+ * from another package.
+ */
+@SerializableAs("ItemMeta")
+public abstract class FakeItemMeta implements ItemMeta, Damageable {
+  private static final String TYPE_KEY = "meta-type";
+  private static final String NAME_KEY = "display-name";
+  private static final String LORE_KEY = "lore";
+  private static final String DAMAGE_KEY = "Damage";
+  private static final Constructor<? extends FakeItemMeta> CONSTRUCTOR =
+      Fakes.constructor(FakeItemMeta.class);
+
+  private final Map<String, Object> entries = new LinkedHashMap<>();
+
+  protected FakeItemMeta() {
+    entries.put(TYPE_KEY, "UNSPECIFIC");
+  }
+
+  /**
+   * Make the meta known to Bukkit's deserialization.
+   */
+  static void register() {
+    ConfigurationSerialization.registerClass(FakeItemMeta.class);
+  }
+
+  /**
+   * Create empty item meta.
+   *
+   * @return The meta.
+   */
+  static FakeItemMeta create() {
+    return Fakes.create(CONSTRUCTOR);
+  }
+
+  /**
+   * Create item meta from its serialized form, called by Bukkit.
+   *
+   * @param map - Serialized meta.
+   * @return The meta.
+   */
+  public static FakeItemMeta deserialize(Map<String, Object> map) {
+    FakeItemMeta meta = create();
+    map.forEach(meta::set);
+    meta.entries.remove(ConfigurationSerialization.SERIALIZED_TYPE_KEY);
+    return meta;
+  }
+
+  /**
+   * Set an entry of the serialized form.
+   *
+   * @param key   - Key of the entry.
+   * @param value - Value or null to remove the entry.
+   */
+  void set(String key, Object value) {
+    if (value == null) {
+      entries.remove(key);
+    } else {
+      entries.put(key, value);
+    }
+  }
+
+  @Override
+  public Map<String, Object> serialize() {
+    return new LinkedHashMap<>(entries);
+  }
+
+  @Override
+  public boolean hasDisplayName() {
+    return entries.containsKey(NAME_KEY);
+  }
+
+  @Override
+  public String getDisplayName() {
+    return (String) entries.get(NAME_KEY);
+  }
+
+  @Override
+  public void setDisplayName(String name) {
+    set(NAME_KEY, name);
+  }
+
+  @Override
+  public boolean hasLore() {
+    return entries.containsKey(LORE_KEY);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public List<String> getLore() {
+    List<String> lore = (List<String>) entries.get(LORE_KEY);
+    return lore == null ? null : new ArrayList<>(lore);
+  }
+
+  @Override
+  public void setLore(List<String> lore) {
+    set(LORE_KEY, lore == null || lore.isEmpty() ? null : new ArrayList<>(lore));
+  }
+
+  @Override
+  public boolean hasDamage() {
+    return getDamage() != 0;
+  }
+
+  @Override
+  public int getDamage() {
+    Object damage = entries.get(DAMAGE_KEY);
+    return damage == null ? 0 : (Integer) damage;
+  }
+
+  @Override
+  public void setDamage(int damage) {
+    set(DAMAGE_KEY, damage == 0 ? null : damage);
+  }
+
+  @Override
+  public boolean hasEnchants() {
+    return entries.containsKey("enchants");
+  }
+
+  @Override
+  public void setVersion(int version) {
+    // Nothing to upgrade.
+  }
+
+  @Override
+  public FakeItemMeta clone() {
+    FakeItemMeta copy = create();
+    copy.entries.putAll(entries);
+    return copy;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    return other instanceof FakeItemMeta && entries.equals(((FakeItemMeta) other).entries);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(entries);
+  }
+
+  @Override
+  public String toString() {
+    return "FakeItemMeta" + entries;
+  }
+}
@@ -0,0 +1,86 @@
+package com.tallcraft.deathbarrel;
+
+import java.util.UUID;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.event.inventory.InventoryType;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.InventoryView;
+
+/**
+ * Online player of the stub server, the handler behind its {@link Player}.
+ * Has every permission and counts the messages sent to it.
+ */
+final class FakePlayer {
+  private static final int PLAYER_INVENTORY_SIZE = 36;
+
+  private final Player player = Fakes.proxy(Player.class, this);
+  private final UUID uniqueId = UUID.randomUUID();
+  private final String name;
+  private final FakeInventory inventory;
+  private Location location;
+  private long messages = 0;
+
+  FakePlayer(String name, Location location) {
+    this.name = name;
+    this.location = location.clone();
+    this.inventory = FakeInventory.create(InventoryType.PLAYER, PLAYER_INVENTORY_SIZE, player,
+        null);
+  }
+
+  Player getPlayer() {
+    return player;
+  }
+
+  void setLocation(Location location) {
+    this.location = location.clone();
+  }
+
+  long getMessageCount() {
+    return messages;
+  }
+
+  /**
+   * Create the view of this player looking into an inventory.
+   *
+   * @param top - Inventory shown at the top.
+   * @return The view.
+   */
+  InventoryView view(Inventory top) {
+    return Fakes.view(player, top, inventory);
+  }
+
+  UUID getUniqueId() {
+    return uniqueId;
+  }
+
+  String getName() {
+    return name;
+  }
+
+  String getDisplayName() {
+    return name;
+  }
+
+  Location getLocation() {
+    return location.clone();
+  }
+
+  World getWorld() {
+    return location.getWorld();
+  }
+
+  boolean isOnline() {
+    return true;
+  }
+
+  boolean hasPermission(String permission) {
+    return true;
+  }
+
+  void sendMessage(String message) {
+    messages++;
+  }
+}
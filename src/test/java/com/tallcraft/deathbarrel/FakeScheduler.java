@@ -0,0 +1,171 @@
+package com.tallcraft.deathbarrel;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * Scheduler of the stub server. Sync tasks run when the owner of the server
+ * calls {@link #tick()}, async tasks run in order on a single background
+ * thread.
+ */
+final class FakeScheduler {
+  private final BukkitScheduler scheduler = Fakes.proxy(BukkitScheduler.class, new Handler());
+  private final PriorityQueue<Task> queue = new PriorityQueue<>(
+      Comparator.<Task>comparingLong(task -> task.nextTick).thenComparingInt(task -> task.id));
+  private final ExecutorService asyncExecutor = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "FakeScheduler async");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private long currentTick = 0;
+  private int nextId = 1;
+
+  BukkitScheduler getScheduler() {
+    return scheduler;
+  }
+
+  synchronized long getCurrentTick() {
+    return currentTick;
+  }
+
+  /**
+   * @return Number of sync tasks waiting to run, including repeating tasks.
+   */
+  synchronized int getPendingCount() {
+    return queue.size();
+  }
+
+  /**
+   * Run one server tick: every sync task which is due. Tasks scheduled by
+   * these tasks run on the next tick at the earliest.
+   */
+  void tick() {
+    long tick;
+    synchronized (this) {
+      tick = ++currentTick;
+    }
+    while (true) {
+      Task task;
+      synchronized (this) {
+        if (queue.isEmpty() || queue.peek().nextTick > tick) {
+          return;
+        }
+        task = queue.poll();
+      }
+      task.runnable.run();
+      synchronized (this) {
+        if (task.period > 0 && !task.cancelled) {
+          task.nextTick = tick + task.period;
+          queue.add(task);
+        }
+      }
+    }
+  }
+
+  /**
+   * Wait until all async tasks submitted so far have run.
+   */
+  void awaitAsync() throws InterruptedException {
+    try {
+      asyncExecutor.submit(() -> { }).get();
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Drop all sync tasks, e.g. those of a disabled plugin.
+   */
+  synchronized void clear() {
+    queue.clear();
+  }
+
+  private synchronized Task schedule(Plugin plugin, Runnable runnable, long delay, long period) {
+    Task task = new Task(nextId++, plugin, runnable, currentTick + Math.max(1, delay), period);
+    queue.add(task);
+    return task;
+  }
+
+  private synchronized void cancel(Task task) {
+    task.cancelled = true;
+    queue.remove(task);
+  }
+
+  /**
+   * Sync task, the handler behind its {@link BukkitTask}.
+   */
+  private final class Task {
+    private final int id;
+    private final Plugin plugin;
+    private final Runnable runnable;
+    private final long period;
+    private final BukkitTask bukkitTask = Fakes.proxy(BukkitTask.class, this);
+    private long nextTick;
+    private boolean cancelled = false;
+
+    private Task(int id, Plugin plugin, Runnable runnable, long nextTick, long period) {
+      this.id = id;
+      this.plugin = plugin;
+      this.runnable = runnable;
+      this.nextTick = nextTick;
+      this.period = period;
+    }
+
+    int getTaskId() {
+      return id;
+    }
+
+    Plugin getOwner() {
+      return plugin;
+    }
+
+    boolean isSync() {
+      return true;
+    }
+
+    boolean isCancelled() {
+      synchronized (FakeScheduler.this) {
+        return cancelled;
+      }
+    }
+
+    void cancel() {
+      FakeScheduler.this.cancel(this);
+    }
+  }
+
+  /**
+   * Implementation of the {@link BukkitScheduler} methods used by the plugin.
+   */
+  private final class Handler {
+    BukkitTask runTask(Plugin plugin, Runnable task) {
+      return schedule(plugin, task, 1, 0).bukkitTask;
+    }
+
+    BukkitTask runTaskLater(Plugin plugin, Runnable task, long delay) {
+      return schedule(plugin, task, delay, 0).bukkitTask;
+    }
+
+    BukkitTask runTaskTimer(Plugin plugin, Runnable task, long delay, long period) {
+      return schedule(plugin, task, delay, Math.max(1, period)).bukkitTask;
+    }
+
+    BukkitTask runTaskAsynchronously(Plugin plugin, Runnable task) {
+      asyncExecutor.execute(task);
+      return Fakes.proxy(BukkitTask.class);
+    }
+
+    void cancelTasks(Plugin plugin) {
+      synchronized (FakeScheduler.this) {
+        queue.removeIf(task -> task.plugin == plugin);
+      }
+    }
+  }
+}
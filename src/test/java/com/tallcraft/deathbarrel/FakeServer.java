@@ -0,0 +1,338 @@
+package com.tallcraft.deathbarrel;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.ConsoleHandler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.Server;
+import org.bukkit.UnsafeValues;
+import org.bukkit.World;
+import org.bukkit.command.PluginCommand;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.Player;
+import org.bukkit.event.inventory.InventoryType;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.InventoryHolder;
+import org.bukkit.inventory.ItemFactory;
+import org.bukkit.inventory.meta.ItemMeta;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.PluginDescriptionFile;
+import org.bukkit.plugin.PluginManager;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.plugin.java.JavaPluginLoader;
+import org.bukkit.scheduler.BukkitScheduler;
+
+/**
+ * In-process stand-in for a Bukkit server, enough to enable the plugin and
+ * call its event handlers. Events are not dispatched, callers invoke the
+ * handlers directly. Time only passes when {@link FakeScheduler#tick()} is
+ * called.
+ *
+ * <p>Bukkit holds the server in a static field, so there is one instance per
+ * JVM. {@link #reset()} clears it for the next run.
+ */
+final class FakeServer {
+  // Data version of Minecraft 1.18.1.
+  private static final int DATA_VERSION = 2865;
+  private static final int VIEW_DISTANCE = 10;
+  private static FakeServer instance;
+
+  private final Logger logger = Logger.getLogger("FakeServer");
+  private final ConsoleHandler logHandler = new ConsoleHandler();
+  private final FakeScheduler scheduler = new FakeScheduler();
+  private final Server server = Fakes.proxy(Server.class, new Handler());
+  private final PluginManager pluginManager = Fakes.proxy(PluginManager.class);
+  private final ItemFactory itemFactory = Fakes.proxy(ItemFactory.class,
+      new ItemFactoryHandler());
+  private final UnsafeValues unsafe = Fakes.proxy(UnsafeValues.class, new UnsafeHandler());
+  private final Map<UUID, FakeWorld> worlds = new LinkedHashMap<>();
+  private final Map<UUID, FakePlayer> players = new LinkedHashMap<>();
+  private final Map<String, PluginCommand> commands = new LinkedHashMap<>();
+
+  private FakeServer() {
+    logger.setUseParentHandlers(false);
+    logger.addHandler(logHandler);
+    setLogLevel(Level.WARNING);
+    FakeItemMeta.register();
+  }
+
+  /**
+   * Get the server, installing it as the Bukkit server on first use.
+   *
+   * @return The server.
+   */
+  static synchronized FakeServer get() {
+    if (instance == null) {
+      // bStats refuses to load unless relocated, which only happens when the jar is shaded.
+      System.setProperty("bstats.relocatecheck", "false");
+      instance = new FakeServer();
+      Bukkit.setServer(instance.server);
+    }
+    return instance;
+  }
+
+  Server getServer() {
+    return server;
+  }
+
+  FakeScheduler getScheduler() {
+    return scheduler;
+  }
+
+  /**
+   * Set the lowest level of server and plugin log messages printed.
+   */
+  void setLogLevel(Level level) {
+    logHandler.setLevel(level);
+  }
+
+  FakeWorld addWorld(String name) {
+    FakeWorld world = new FakeWorld(name);
+    worlds.put(world.getWorld().getUID(), world);
+    return world;
+  }
+
+  FakePlayer addPlayer(String name, Location location) {
+    FakePlayer player = new FakePlayer(name, location);
+    players.put(player.getUniqueId(), player);
+    return player;
+  }
+
+  /**
+   * Remove all worlds, players and scheduled tasks.
+   */
+  void reset() {
+    worlds.clear();
+    players.clear();
+    commands.clear();
+    scheduler.clear();
+  }
+
+  /**
+   * Create and enable the plugin.
+   *
+   * @param pluginsFolder - Folder holding the data folders of plugins.
+   * @param config        - Config entries to set, the rest keep their default.
+   * @return The enabled plugin.
+   * @throws IOException If the config could not be written.
+   */
+  @SuppressWarnings("deprecation")
+  DeathBarrel enable(File pluginsFolder, Map<String, Object> config) throws IOException {
+    File dataFolder = new File(pluginsFolder, "DeathBarrel");
+    YamlConfiguration pluginConfig = new YamlConfiguration();
+    config.forEach(pluginConfig::set);
+    pluginConfig.save(new File(dataFolder, "config.yml"));
+
+    // Keep bStats from starting its submission timer.
+    YamlConfiguration metricsConfig = new YamlConfiguration();
+    metricsConfig.set("enabled", false);
+    metricsConfig.set("serverUuid", UUID.randomUUID().toString());
+    metricsConfig.save(new File(pluginsFolder, "bStats/config.yml"));
+
+    PluginDescriptionFile description = new PluginDescriptionFile("DeathBarrel", "fake",
+        DeathBarrel.class.getName());
+    DeathBarrel plugin = new DeathBarrel(new JavaPluginLoader(server), description, dataFolder,
+        new File(pluginsFolder, "DeathBarrel.jar"));
+    commands.put("deathbarrel", createCommand("deathbarrel", plugin));
+    setEnabled(plugin, true);
+    return plugin;
+  }
+
+  /**
+   * Disable the plugin and drop its tasks.
+   *
+   * @param plugin - Plugin to disable.
+   */
+  void disable(DeathBarrel plugin) throws InterruptedException {
+    setEnabled(plugin, false);
+    scheduler.getScheduler().cancelTasks(plugin);
+    scheduler.awaitAsync();
+  }
+
+  private static PluginCommand createCommand(String name, Plugin plugin) {
+    try {
+      Constructor<PluginCommand> constructor = PluginCommand.class.getDeclaredConstructor(
+          String.class, Plugin.class);
+      constructor.setAccessible(true);
+      return constructor.newInstance(name, plugin);
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static void setEnabled(JavaPlugin plugin, boolean enabled) {
+    try {
+      Method method = JavaPlugin.class.getDeclaredMethod("setEnabled", boolean.class);
+      method.setAccessible(true);
+      method.invoke(plugin, enabled);
+    } catch (InvocationTargetException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Delete a folder and everything in it.
+   *
+   * @param folder - Folder to delete.
+   * @throws IOException If deleting failed.
+   */
+  static void delete(File folder) throws IOException {
+    if (!folder.exists()) {
+      return;
+    }
+    try (Stream<Path> paths = Files.walk(folder.toPath())) {
+      for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(path);
+      }
+    }
+  }
+
+  /**
+   * Implementation of the {@link Server} methods used by the plugin and the
+   * Bukkit API classes it calls.
+   */
+  private final class Handler {
+    String getName() {
+      return "FakeServer";
+    }
+
+    String getVersion() {
+      return "git-FakeServer (MC: 1.18.1)";
+    }
+
+    String getBukkitVersion() {
+      return "1.18.1-R0.1-SNAPSHOT";
+    }
+
+    Logger getLogger() {
+      return logger;
+    }
+
+    boolean isPrimaryThread() {
+      return true;
+    }
+
+    int getViewDistance() {
+      return VIEW_DISTANCE;
+    }
+
+    BukkitScheduler getScheduler() {
+      return scheduler.getScheduler();
+    }
+
+    PluginManager getPluginManager() {
+      return pluginManager;
+    }
+
+    ItemFactory getItemFactory() {
+      return itemFactory;
+    }
+
+    UnsafeValues getUnsafe() {
+      return unsafe;
+    }
+
+    PluginCommand getPluginCommand(String name) {
+      return commands.get(name);
+    }
+
+    List<World> getWorlds() {
+      List<World> result = new ArrayList<>();
+      for (FakeWorld world : worlds.values()) {
+        result.add(world.getWorld());
+      }
+      return result;
+    }
+
+    World getWorld(UUID uid) {
+      FakeWorld world = worlds.get(uid);
+      return world == null ? null : world.getWorld();
+    }
+
+    World getWorld(String name) {
+      for (FakeWorld world : worlds.values()) {
+        if (world.getWorld().getName().equals(name)) {
+          return world.getWorld();
+        }
+      }
+      return null;
+    }
+
+    Collection<Player> getOnlinePlayers() {
+      List<Player> result = new ArrayList<>();
+      for (FakePlayer player : players.values()) {
+        result.add(player.getPlayer());
+      }
+      return result;
+    }
+
+    Player getPlayer(UUID uid) {
+      FakePlayer player = players.get(uid);
+      return player == null ? null : player.getPlayer();
+    }
+
+    Inventory createInventory(InventoryHolder holder, int size, String title) {
+      return FakeInventory.create(InventoryType.CHEST, size, holder, null);
+    }
+  }
+
+  /**
+   * All items get {@link FakeItemMeta}, whatever their material.
+   */
+  private static final class ItemFactoryHandler {
+    ItemMeta getItemMeta(Material material) {
+      return material.isAir() ? null : FakeItemMeta.create();
+    }
+
+    boolean equals(ItemMeta meta1, ItemMeta meta2) {
+      // Null stands for empty meta.
+      return (meta1 == null ? FakeItemMeta.create() : meta1)
+          .equals(meta2 == null ? FakeItemMeta.create() : meta2);
+    }
+
+    boolean isApplicable(ItemMeta meta, Material material) {
+      return meta instanceof FakeItemMeta && !material.isAir();
+    }
+
+    ItemMeta asMetaFor(ItemMeta meta, Material material) {
+      return meta;
+    }
+
+    Material updateMaterial(ItemMeta meta, Material material) {
+      return material;
+    }
+  }
+
+  private static final class UnsafeHandler {
+    int getDataVersion() {
+      return DATA_VERSION;
+    }
+
+    Material getMaterial(String material, int version) {
+      return Material.getMaterial(material);
+    }
+  }
+}
@@ -0,0 +1,623 @@
+package com.tallcraft.deathbarrel;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import org.bukkit.Chunk;
+import org.bukkit.HeightMap;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.NamespacedKey;
+import org.bukkit.World;
+import org.bukkit.block.Barrel;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.entity.Item;
+import org.bukkit.event.inventory.InventoryType;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.bukkit.persistence.PersistentDataType;
+
+/**
+ * World of the stub server. Flat stone below {@link #GROUND_Y}, air above,
+ * every chunk counts as generated and loaded. Only changed blocks are
+ * stored. Barrels are the only tile entities.
+ *
+ * <p>Worlds, chunks, blocks and their states are abstract classes completed
+ * by {@link Fakes#implement(Class)}, methods not implemented here throw.
+ */
+final class FakeWorld {
+  static final int GROUND_Y = 64;
+  private static final int MIN_HEIGHT = -64;
+  private static final int MAX_HEIGHT = 320;
+
+  private static final Constructor<? extends WorldStub> WORLD =
+      Fakes.constructor(WorldStub.class, FakeWorld.class);
+  private static final Constructor<? extends ChunkStub> CHUNK =
+      Fakes.constructor(ChunkStub.class, FakeWorld.class, int.class, int.class);
+  private static final Constructor<? extends BlockStub> BLOCK =
+      Fakes.constructor(BlockStub.class, FakeWorld.class, int.class, int.class, int.class);
+  private static final Constructor<? extends BlockDataStub> BLOCK_DATA =
+      Fakes.constructor(BlockDataStub.class, Material.class);
+  private static final Constructor<? extends StateStub> STATE =
+      Fakes.constructor(StateStub.class, FakeWorld.class, BlockStub.class, Material.class);
+  private static final Constructor<? extends Tile> TILE =
+      Fakes.constructor(Tile.class, FakeWorld.class, int.class, int.class, int.class);
+  private static final Constructor<? extends DataStub> DATA = Fakes.constructor(DataStub.class);
+
+  private final World world = Fakes.create(WORLD, this);
+  private final UUID uid = UUID.randomUUID();
+  private final String name;
+  // Block key => material of changed blocks.
+  private final Map<Long, Material> blocks = new HashMap<>();
+  // Column key => highest non-air y, for columns with blocks placed above ground.
+  private final Map<Long, Integer> surface = new HashMap<>();
+  // Block key => barrel, chunk key => barrels in the chunk.
+  private final Map<Long, Tile> tiles = new HashMap<>();
+  private final Map<Long, List<Tile>> tilesByChunk = new HashMap<>();
+  // Chunk key => persistent data of the chunk.
+  private final Map<Long, PersistentDataContainer> chunkData = new HashMap<>();
+  // All barrels, for picking random ones.
+  private final List<Tile> tileList = new ArrayList<>();
+  private long droppedItems = 0;
+
+  FakeWorld(String name) {
+    this.name = name;
+  }
+
+  World getWorld() {
+    return world;
+  }
+
+  Block getBlock(int x, int y, int z) {
+    return world.getBlockAt(x, y, z);
+  }
+
+  Chunk getChunk(int chunkX, int chunkZ) {
+    return world.getChunkAt(chunkX, chunkZ);
+  }
+
+  /**
+   * @return Number of barrel blocks in the world.
+   */
+  int getBarrelCount() {
+    return tileList.size();
+  }
+
+  /**
+   * Pick a random barrel block.
+   *
+   * @param random - Source of randomness.
+   * @return A barrel block or null if there are none.
+   */
+  Block getRandomBarrel(Random random) {
+    if (tileList.isEmpty()) {
+      return null;
+    }
+    Tile tile = tileList.get(random.nextInt(tileList.size()));
+    return getBlock(tile.x, tile.y, tile.z);
+  }
+
+  /**
+   * @return Number of items dropped in the world so far.
+   */
+  long getDroppedItems() {
+    return droppedItems;
+  }
+
+  private static long blockKey(int x, int y, int z) {
+    return ((long) x & 0x3FFFFFF) << 38 | ((long) z & 0x3FFFFFF) << 12 | (y & 0xFFF);
+  }
+
+  private Material getType(int x, int y, int z) {
+    Material type = blocks.get(blockKey(x, y, z));
+    if (type != null) {
+      return type;
+    }
+    return y < GROUND_Y ? Material.STONE : Material.AIR;
+  }
+
+  private void setType(int x, int y, int z, Material type) {
+    long key = blockKey(x, y, z);
+    blocks.put(key, type);
+    if (!type.isAir() && y >= GROUND_Y) {
+      surface.merge(Util.chunkKey(x, z), y, Math::max);
+    }
+
+    Tile tile = tiles.get(key);
+    if (tile != null && type != Material.BARREL) {
+      tiles.remove(key);
+      tilesByChunk.get(Util.chunkKey(x >> 4, z >> 4)).remove(tile);
+      // Swap the last barrel into the slot of the removed one.
+      Tile last = tileList.remove(tileList.size() - 1);
+      if (last != tile) {
+        tileList.set(tile.listIndex, last);
+        last.listIndex = tile.listIndex;
+      }
+    } else if (tile == null && type == Material.BARREL) {
+      tile = Fakes.create(TILE, this, x, y, z);
+      tiles.put(key, tile);
+      tilesByChunk.computeIfAbsent(Util.chunkKey(x >> 4, z >> 4), k -> new ArrayList<>())
+          .add(tile);
+      tile.listIndex = tileList.size();
+      tileList.add(tile);
+    }
+  }
+
+  /**
+   * The {@link World} methods used by the plugin.
+   */
+  private abstract class WorldStub implements World {
+    WorldStub() {
+    }
+
+    @Override
+    public UUID getUID() {
+      return uid;
+    }
+
+    @Override
+    public String getName() {
+      return name;
+    }
+
+    @Override
+    public int getMinHeight() {
+      return MIN_HEIGHT;
+    }
+
+    @Override
+    public int getMaxHeight() {
+      return MAX_HEIGHT;
+    }
+
+    @Override
+    public Block getBlockAt(int x, int y, int z) {
+      return Fakes.create(BLOCK, FakeWorld.this, x, y, z);
+    }
+
+    @Override
+    public Block getBlockAt(Location location) {
+      return getBlockAt(location.getBlockX(), location.getBlockY(), location.getBlockZ());
+    }
+
+    @Override
+    public int getHighestBlockYAt(int x, int z) {
+      return surface.getOrDefault(Util.chunkKey(x, z), GROUND_Y - 1);
+    }
+
+    @Override
+    public int getHighestBlockYAt(int x, int z, HeightMap heightMap) {
+      return getHighestBlockYAt(x, z);
+    }
+
+    @Override
+    public boolean isChunkLoaded(int chunkX, int chunkZ) {
+      return true;
+    }
+
+    @Override
+    public boolean isChunkGenerated(int chunkX, int chunkZ) {
+      return true;
+    }
+
+    @Override
+    public Chunk getChunkAt(int chunkX, int chunkZ) {
+      return Fakes.create(CHUNK, FakeWorld.this, chunkX, chunkZ);
+    }
+
+    @Override
+    public Chunk getChunkAt(Location location) {
+      return getChunkAt(location.getBlockX() >> 4, location.getBlockZ() >> 4);
+    }
+
+    @Override
+    public Chunk getChunkAt(Block block) {
+      return getChunkAt(block.getX() >> 4, block.getZ() >> 4);
+    }
+
+    @Override
+    public Location getSpawnLocation() {
+      return new Location(world, 0, GROUND_Y, 0);
+    }
+
+    @Override
+    public Item dropItemNaturally(Location location, ItemStack item) {
+      droppedItems++;
+      return Fakes.proxy(Item.class);
+    }
+
+    @Override
+    public Item dropItem(Location location, ItemStack item) {
+      return dropItemNaturally(location, item);
+    }
+  }
+
+  /**
+   * The {@link Chunk} methods used by the plugin.
+   */
+  private abstract class ChunkStub implements Chunk {
+    private final int chunkX;
+    private final int chunkZ;
+
+    ChunkStub(int chunkX, int chunkZ) {
+      this.chunkX = chunkX;
+      this.chunkZ = chunkZ;
+    }
+
+    @Override
+    public int getX() {
+      return chunkX;
+    }
+
+    @Override
+    public int getZ() {
+      return chunkZ;
+    }
+
+    @Override
+    public World getWorld() {
+      return world;
+    }
+
+    @Override
+    public boolean isLoaded() {
+      return true;
+    }
+
+    @Override
+    public Block getBlock(int x, int y, int z) {
+      return world.getBlockAt((chunkX << 4) + x, y, (chunkZ << 4) + z);
+    }
+
+    @Override
+    public PersistentDataContainer getPersistentDataContainer() {
+      return chunkData.computeIfAbsent(Util.chunkKey(chunkX, chunkZ), k -> Fakes.create(DATA));
+    }
+
+    @Override
+    public BlockState[] getTileEntities() {
+      List<Tile> chunkTiles = tilesByChunk.get(Util.chunkKey(chunkX, chunkZ));
+      if (chunkTiles == null) {
+        return new BlockState[0];
+      }
+      return chunkTiles.toArray(new BlockState[0]);
+    }
+  }
+
+  /**
+   * The {@link Block} methods used by the plugin.
+   */
+  private abstract class BlockStub implements Block {
+    private final int x;
+    private final int y;
+    private final int z;
+
+    BlockStub(int x, int y, int z) {
+      this.x = x;
+      this.y = y;
+      this.z = z;
+    }
+
+    @Override
+    public World getWorld() {
+      return world;
+    }
+
+    @Override
+    public int getX() {
+      return x;
+    }
+
+    @Override
+    public int getY() {
+      return y;
+    }
+
+    @Override
+    public int getZ() {
+      return z;
+    }
+
+    @Override
+    public Location getLocation() {
+      return new Location(world, x, y, z);
+    }
+
+    @Override
+    public Chunk getChunk() {
+      return world.getChunkAt(x >> 4, z >> 4);
+    }
+
+    @Override
+    public Block getRelative(int dx, int dy, int dz) {
+      return world.getBlockAt(x + dx, y + dy, z + dz);
+    }
+
+    @Override
+    public Material getType() {
+      return FakeWorld.this.getType(x, y, z);
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return getType().isAir();
+    }
+
+    @Override
+    public void setType(Material type) {
+      FakeWorld.this.setType(x, y, z, type);
+    }
+
+    @Override
+    public void setType(Material type, boolean applyPhysics) {
+      FakeWorld.this.setType(x, y, z, type);
+    }
+
+    @Override
+    public BlockData getBlockData() {
+      return Fakes.create(BLOCK_DATA, getType());
+    }
+
+    @Override
+    public BlockState getState() {
+      Tile tile = tiles.get(blockKey(x, y, z));
+      if (tile != null) {
+        return tile;
+      }
+      return Fakes.create(STATE, FakeWorld.this, this, getType());
+    }
+  }
+
+  /**
+   * The {@link BlockData} methods used by the plugin.
+   */
+  private abstract static class BlockDataStub implements BlockData {
+    private final Material type;
+
+    BlockDataStub(Material type) {
+      this.type = type;
+    }
+
+    @Override
+    public Material getMaterial() {
+      return type;
+    }
+
+    @Override
+    public BlockData clone() {
+      return Fakes.create(BLOCK_DATA, type);
+    }
+  }
+
+  /**
+   * Snapshot of a block without tile entity. Changes are not written back.
+   */
+  private abstract class StateStub implements BlockState {
+    private final BlockStub block;
+    private Material type;
+
+    StateStub(BlockStub block, Material type) {
+      this.block = block;
+      this.type = type;
+    }
+
+    @Override
+    public Block getBlock() {
+      return world.getBlockAt(block.x, block.y, block.z);
+    }
+
+    @Override
+    public World getWorld() {
+      return world;
+    }
+
+    @Override
+    public Location getLocation() {
+      return block.getLocation();
+    }
+
+    @Override
+    public int getX() {
+      return block.x;
+    }
+
+    @Override
+    public int getY() {
+      return block.y;
+    }
+
+    @Override
+    public int getZ() {
+      return block.z;
+    }
+
+    @Override
+    public Material getType() {
+      return type;
+    }
+
+    @Override
+    public void setType(Material type) {
+      this.type = type;
+    }
+
+    @Override
+    public boolean update() {
+      return true;
+    }
+
+    @Override
+    public boolean update(boolean force) {
+      return true;
+    }
+
+    @Override
+    public boolean update(boolean force, boolean applyPhysics) {
+      return true;
+    }
+  }
+
+  /**
+   * Barrel tile entity, also its {@link Barrel} state. All states of the
+   * barrel are the tile entity, so changes apply right away.
+   */
+  private abstract class Tile implements Barrel {
+    private final int x;
+    private final int y;
+    private final int z;
+    private final FakeInventory inventory;
+    private final PersistentDataContainer data = Fakes.create(DATA);
+    private String customName = null;
+    private int listIndex;
+
+    Tile(int x, int y, int z) {
+      this.x = x;
+      this.y = y;
+      this.z = z;
+      this.inventory = FakeInventory.create(InventoryType.BARREL,
+          InventoryType.BARREL.getDefaultSize(), this, getLocation());
+    }
+
+    @Override
+    public Block getBlock() {
+      return world.getBlockAt(x, y, z);
+    }
+
+    @Override
+    public World getWorld() {
+      return world;
+    }
+
+    @Override
+    public Location getLocation() {
+      return new Location(world, x, y, z);
+    }
+
+    @Override
+    public Chunk getChunk() {
+      return world.getChunkAt(x >> 4, z >> 4);
+    }
+
+    @Override
+    public int getX() {
+      return x;
+    }
+
+    @Override
+    public int getY() {
+      return y;
+    }
+
+    @Override
+    public int getZ() {
+      return z;
+    }
+
+    @Override
+    public Material getType() {
+      return Material.BARREL;
+    }
+
+    @Override
+    public void setType(Material type) {
+      // Barrels stay barrels, like tile entity states.
+    }
+
+    @Override
+    public boolean isPlaced() {
+      return true;
+    }
+
+    @Override
+    public boolean update() {
+      return true;
+    }
+
+    @Override
+    public boolean update(boolean force) {
+      return true;
+    }
+
+    @Override
+    public boolean update(boolean force, boolean applyPhysics) {
+      return true;
+    }
+
+    @Override
+    public Inventory getInventory() {
+      return inventory;
+    }
+
+    @Override
+    public Inventory getSnapshotInventory() {
+      return inventory;
+    }
+
+    @Override
+    public PersistentDataContainer getPersistentDataContainer() {
+      return data;
+    }
+
+    @Override
+    public String getCustomName() {
+      return customName;
+    }
+
+    @Override
+    public void setCustomName(String name) {
+      customName = name;
+    }
+  }
+
+  /**
+   * The {@link PersistentDataContainer} methods used by the plugin. Values
+   * are stored as given, without converting them to NBT.
+   */
+  private abstract static class DataStub implements PersistentDataContainer {
+    private final Map<NamespacedKey, Object> values = new HashMap<>();
+
+    DataStub() {
+    }
+
+    @Override
+    public <T, Z> boolean has(NamespacedKey key, PersistentDataType<T, Z> type) {
+      return type.getComplexType().isInstance(values.get(key));
+    }
+
+    @Override
+    public <T, Z> Z get(NamespacedKey key, PersistentDataType<T, Z> type) {
+      Object value = values.get(key);
+      return type.getComplexType().isInstance(value) ? type.getComplexType().cast(value) : null;
+    }
+
+    @Override
+    public <T, Z> Z getOrDefault(NamespacedKey key, PersistentDataType<T, Z> type,
+                                 Z defaultValue) {
+      Z value = get(key, type);
+      return value != null ? value : defaultValue;
+    }
+
+    @Override
+    public <T, Z> void set(NamespacedKey key, PersistentDataType<T, Z> type, Z value) {
+      values.put(key, value);
+    }
+
+    @Override
+    public void remove(NamespacedKey key) {
+      values.remove(key);
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return values.isEmpty();
+    }
+  }
+}
@@ -0,0 +1,246 @@
+package com.tallcraft.deathbarrel;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import net.bytebuddy.ByteBuddy;
+import net.bytebuddy.dynamic.loading.ClassLoadingStrategy;
+import net.bytebuddy.implementation.ExceptionMethod;
+import net.bytebuddy.matcher.ElementMatchers;
+import org.bukkit.entity.Player;
+import org.bukkit.event.inventory.InventoryType;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.InventoryView;
+
+/**
+ * Minimal stand-ins for the Bukkit interfaces the plugin touches, so its
+ * handlers can run without a server.
+ *
+ * <p>Stubs on the paths the benchmarks measure, worlds, chunks, blocks,
+ * barrels and inventories, are plain abstract classes completed by
+ * {@link #implement(Class)}. Calls cost a virtual call and methods a stub
+ * does not implement throw. Stubs which must be classes, e.g. to be
+ * serialized by Bukkit, are written the same way.
+ *
+ * <p>Other interfaces are implemented by proxies which forward calls to a
+ * handler object with a method of the same name and parameter types. All
+ * other methods return an empty value: false, 0, an empty string or
+ * collection, or another stub for interfaces.
+ */
+final class Fakes {
+  private static final Logger LOGGER = Logger.getLogger("Fakes");
+  // Handler class => interface method => handler method, or the interface
+  // method itself if the handler does not implement it.
+  private static final Map<Class<?>, Map<Method, Method>> HANDLER_METHODS =
+      new ConcurrentHashMap<>();
+
+  private Fakes() {
+  }
+
+  /**
+   * Create a stub of an interface.
+   *
+   * @param type    - Interface to implement.
+   * @param handler - Object implementing some of its methods.
+   * @return The stub.
+   */
+  static <T> T proxy(Class<T> type, Object handler) {
+    return type.cast(Proxy.newProxyInstance(Fakes.class.getClassLoader(), new Class<?>[] {type},
+        (proxy, method, args) -> invoke(proxy, handler, method, args)));
+  }
+
+  /**
+   * Create a stub of an interface which implements none of its methods.
+   *
+   * @param type - Interface to implement.
+   * @return The stub.
+   */
+  static <T> T proxy(Class<T> type) {
+    return proxy(type, new Object());
+  }
+
+  /**
+   * Complete an abstract stub class. Methods it leaves abstract throw
+   * {@link UnsupportedOperationException}, so calls the stub is not prepared
+   * for fail instead of returning a made up value. Annotations and
+   * non-private constructors of the class are copied.
+   *
+   * @param type - Abstract class in this package.
+   * @return Concrete subclass of the class.
+   */
+  static <T> Class<? extends T> implement(Class<T> type) {
+    return new ByteBuddy()
+        .subclass(type)
+        .annotateType(type.getDeclaredAnnotations())
+        .method(ElementMatchers.isAbstract())
+        .intercept(ExceptionMethod.throwing(UnsupportedOperationException.class,
+            "Not implemented by " + type.getSimpleName()))
+        .make()
+        .load(type.getClassLoader(),
+            // A lambda, not a method reference, so the lookup is for this class.
+            ClassLoadingStrategy.UsingLookup.withFallback(() -> MethodHandles.lookup()))
+        .getLoaded();
+  }
+
+  /**
+   * Complete an abstract stub class and look up one of its constructors.
+   *
+   * @param type           - Abstract class in this package, see
+   *                       {@link #implement(Class)}.
+   * @param parameterTypes - Parameter types of the constructor. Constructors
+   *                       of inner classes take the outer instance first.
+   * @return Constructor of the concrete subclass.
+   */
+  static <T> Constructor<? extends T> constructor(Class<T> type, Class<?>... parameterTypes) {
+    try {
+      return implement(type).getDeclaredConstructor(parameterTypes);
+    } catch (NoSuchMethodException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  /**
+   * Create an instance of a stub class.
+   *
+   * @param constructor - Constructor returned by {@link #constructor}.
+   * @param args        - Constructor arguments.
+   * @return The instance.
+   */
+  static <T> T create(Constructor<T> constructor, Object... args) {
+    try {
+      return constructor.newInstance(args);
+    } catch (InvocationTargetException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IllegalStateException(cause);
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static Object invoke(Object proxy, Object handler, Method method, Object[] args)
+      throws Throwable {
+    if (method.getDeclaringClass() == Object.class) {
+      switch (method.getName()) {
+        case "equals":
+          return proxy == args[0];
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        default:
+          return proxy.getClass().getInterfaces()[0].getSimpleName() + "@" + handler;
+      }
+    }
+    Method target = HANDLER_METHODS.computeIfAbsent(handler.getClass(),
+        k -> new ConcurrentHashMap<>()).computeIfAbsent(method, m -> find(handler.getClass(), m));
+    if (target == method) {
+      return emptyValue(method.getReturnType());
+    }
+    try {
+      return target.invoke(handler, args);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  private static Method find(Class<?> handlerClass, Method method) {
+    for (Class<?> type = handlerClass; type != Object.class; type = type.getSuperclass()) {
+      try {
+        Method found = type.getDeclaredMethod(method.getName(), method.getParameterTypes());
+        found.setAccessible(true);
+        return found;
+      } catch (NoSuchMethodException e) {
+        // Look further up.
+      }
+    }
+    return method;
+  }
+
+  private static Object emptyValue(Class<?> type) {
+    if (type == void.class || type == Object.class) {
+      return null;
+    } else if (type == boolean.class) {
+      return false;
+    } else if (type == int.class) {
+      return 0;
+    } else if (type == long.class) {
+      return 0L;
+    } else if (type == double.class) {
+      return 0.0;
+    } else if (type == float.class) {
+      return 0.0f;
+    } else if (type == short.class) {
+      return (short) 0;
+    } else if (type == byte.class) {
+      return (byte) 0;
+    } else if (type == char.class) {
+      return (char) 0;
+    } else if (type == String.class) {
+      return "";
+    } else if (type == Logger.class) {
+      return LOGGER;
+    } else if (type == Optional.class) {
+      return Optional.empty();
+    } else if (type.isAssignableFrom(ArrayList.class)) {
+      return new ArrayList<>();
+    } else if (type.isAssignableFrom(HashSet.class)) {
+      return new HashSet<>();
+    } else if (type.isAssignableFrom(HashMap.class)) {
+      return new HashMap<>();
+    } else if (type.isArray()) {
+      return Array.newInstance(type.getComponentType(), 0);
+    } else if (type.isInterface()) {
+      return proxy(type);
+    }
+    return null;
+  }
+
+  /**
+   * Create the view of a player looking into an inventory.
+   *
+   * @param player - Player looking into the inventory.
+   * @param top    - Inventory shown at the top.
+   * @param bottom - Inventory of the player.
+   * @return The view.
+   */
+  static InventoryView view(Player player, Inventory top, Inventory bottom) {
+    return new InventoryView() {
+      @Override
+      public Inventory getTopInventory() {
+        return top;
+      }
+
+      @Override
+      public Inventory getBottomInventory() {
+        return bottom;
+      }
+
+      @Override
+      public Player getPlayer() {
+        return player;
+      }
+
+      @Override
+      public InventoryType getType() {
+        return top.getType();
+      }
+
+      @Override
+      public String getTitle() {
+        return top.getType().getDefaultTitle();
+      }
+    };
+  }
+}
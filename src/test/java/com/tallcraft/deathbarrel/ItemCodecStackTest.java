@@ -0,0 +1,172 @@
+package com.tallcraft.deathbarrel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.bukkit.Material;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.inventory.ItemStack;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Round trips of item stacks through the item codec on the stub server,
+ * whose items carry {@link FakeItemMeta}.
+ */
+public class ItemCodecStackTest {
+  private static final Logger LOGGER = Logger.getLogger("ItemCodecStackTest");
+  // Data version of Minecraft 1.18.1.
+  private static final int DATA_VERSION = 2865;
+
+  @BeforeClass
+  public static void setUpServer() {
+    FakeServer.get();
+  }
+
+  /**
+   * Create an enchanted, named and damaged sword.
+   *
+   * @param name - Display name of the sword.
+   * @return The sword.
+   */
+  static ItemStack sword(String name) {
+    ItemStack item = new ItemStack(Material.DIAMOND_SWORD);
+    FakeItemMeta meta = (FakeItemMeta) item.getItemMeta();
+    meta.setDisplayName(name);
+    meta.setLore(Arrays.asList("Sharp", "Very sharp"));
+    meta.setDamage(12);
+    Map<String, Integer> enchants = new LinkedHashMap<>();
+    enchants.put("DAMAGE_ALL", 5);
+    enchants.put("DURABILITY", 3);
+    meta.set("enchants", enchants);
+    meta.set("repair-cost", 3);
+    meta.set("Unbreakable", true);
+    item.setItemMeta(meta);
+    return item;
+  }
+
+  /**
+   * Create items as dropped on a death: stacks of blocks and a few swords.
+   *
+   * @return The items.
+   */
+  static List<ItemStack> death() {
+    List<ItemStack> items = new ArrayList<>();
+    for (int i = 0; i < 30; i++) {
+      items.add(new ItemStack(i % 2 == 0 ? Material.COBBLESTONE : Material.DIRT, 64));
+    }
+    items.add(null);
+    for (int i = 0; i < 5; i++) {
+      items.add(sword(i % 2 == 0 ? "Sword" : "Other sword"));
+    }
+    return items;
+  }
+
+  private static List<ItemStack> roundTrip(List<ItemStack> items, boolean compress)
+      throws IOException {
+    return ItemCodec.decode(ItemCodec.encode(items, compress), LOGGER);
+  }
+
+  @Test
+  public void roundTripWithoutMeta() throws IOException {
+    List<ItemStack> items = Arrays.asList(new ItemStack(Material.STONE, 64), null,
+        new ItemStack(Material.BREAD, 3));
+    assertEquals(items, roundTrip(items, false));
+  }
+
+  @Test
+  public void roundTripWithMeta() throws IOException {
+    List<ItemStack> items = death();
+    for (boolean compress : new boolean[] {false, true}) {
+      List<ItemStack> decoded = roundTrip(items, compress);
+      assertEquals(items, decoded);
+      FakeItemMeta meta = (FakeItemMeta) decoded.get(decoded.size() - 1).getItemMeta();
+      assertEquals("Sword", meta.getDisplayName());
+      assertEquals(Arrays.asList("Sharp", "Very sharp"), meta.getLore());
+      assertEquals(12, meta.getDamage());
+    }
+  }
+
+  @Test
+  public void roundTripMetaInYamlForm() throws IOException {
+    // Neither a plain value, a list of strings nor a map of numbers.
+    ItemStack item = new ItemStack(Material.POTION);
+    FakeItemMeta meta = (FakeItemMeta) item.getItemMeta();
+    Map<String, Object> effect = new LinkedHashMap<>();
+    effect.put("effect", 1);
+    effect.put("duration", 600);
+    meta.set("custom-effects", Collections.singletonList(effect));
+    meta.set("PublicBukkitValues", Collections.singletonMap("plugin:key", "value"));
+    item.setItemMeta(meta);
+
+    ItemCodec.RawItems rawItems = ItemCodec.toRaw(Collections.singletonList(item));
+    for (ItemCodec.MetaField field : rawItems.items.get(0).meta) {
+      if (!field.key.equals("meta-type")) {
+        assertEquals(ItemCodec.KIND_YAML, field.kind);
+      }
+    }
+    assertEquals(Collections.singletonList(item),
+        roundTrip(Collections.singletonList(item), false));
+  }
+
+  @Test
+  public void metaIsStoredFieldByField() {
+    ItemCodec.RawItems rawItems = ItemCodec.toRaw(Collections.singletonList(sword("Sword")));
+    Map<String, Integer> kinds = new LinkedHashMap<>();
+    for (ItemCodec.MetaField field : rawItems.items.get(0).meta) {
+      kinds.put(field.key, field.kind);
+    }
+    assertEquals(ItemCodec.KIND_STRING, (int) kinds.get("display-name"));
+    assertEquals(ItemCodec.KIND_STRING_LIST, (int) kinds.get("lore"));
+    assertEquals(ItemCodec.KIND_INT_MAP, (int) kinds.get("enchants"));
+    assertEquals(ItemCodec.KIND_INT, (int) kinds.get("Damage"));
+    assertEquals(ItemCodec.KIND_BOOLEAN, (int) kinds.get("Unbreakable"));
+  }
+
+  @Test
+  public void roundTripSharedDictionary() throws IOException {
+    ItemCodec.Dictionary dictionary = new ItemCodec.Dictionary();
+    List<ItemStack> first = death();
+    List<ItemStack> second = Collections.singletonList(sword("Third sword"));
+    byte[] firstData = ItemCodec.encode(ItemCodec.toRaw(first), false, dictionary);
+    byte[] secondData = ItemCodec.encode(ItemCodec.toRaw(second), false, dictionary);
+
+    ItemCodec.Dictionary decoded = ItemCodec.Dictionary.decode(dictionary.encode(true));
+    assertEquals(first, ItemCodec.decode(firstData, decoded, LOGGER));
+    assertEquals(second, ItemCodec.decode(secondData, decoded, LOGGER));
+  }
+
+  @Test
+  public void unknownMaterialIsSkipped() throws IOException {
+    List<ItemCodec.RawItem> rawItems = new ArrayList<>();
+    rawItems.add(new ItemCodec.RawItem("STONE", 1, null));
+    rawItems.add(new ItemCodec.RawItem("NOT_A_MATERIAL", 1, null));
+    rawItems.add(new ItemCodec.RawItem("BREAD", 2, null));
+    byte[] data = ItemCodec.encode(new ItemCodec.RawItems(DATA_VERSION, rawItems), false);
+
+    List<ItemStack> items = ItemCodec.decode(data, LOGGER);
+    assertEquals(new ItemStack(Material.STONE, 1), items.get(0));
+    assertNull(items.get(1));
+    assertEquals(new ItemStack(Material.BREAD, 2), items.get(2));
+  }
+
+  @Test
+  public void smallerThanYaml() {
+    List<ItemStack> items = death();
+    YamlConfiguration yaml = new YamlConfiguration();
+    yaml.set("items", items);
+    int yamlSize = yaml.saveToString().getBytes(StandardCharsets.UTF_8).length;
+    assertTrue(ItemCodec.encode(items, false).length * 2 < yamlSize);
+  }
+}
@@ -0,0 +1,309 @@
+package com.tallcraft.deathbarrel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests of the item codec's binary format. Only the parts which don't need a
+ * running server are covered, item stacks are not created. See
+ * {@link ItemCodecStackTest} for those.
+ */
+public class ItemCodecTest {
+  private static final int DATA_VERSION = 2860;
+
+  private static List<ItemCodec.MetaField> swordMeta() {
+    Map<String, Integer> enchants = new LinkedHashMap<>();
+    enchants.put("DAMAGE_ALL", 5);
+    enchants.put("DURABILITY", 3);
+    List<ItemCodec.MetaField> meta = new ArrayList<>();
+    meta.add(new ItemCodec.MetaField("meta-type", ItemCodec.KIND_STRING, "UNSPECIFIC"));
+    meta.add(new ItemCodec.MetaField("display-name", ItemCodec.KIND_STRING, "Sword"));
+    meta.add(new ItemCodec.MetaField("lore", ItemCodec.KIND_STRING_LIST,
+        Arrays.asList("Sharp", "Very sharp")));
+    meta.add(new ItemCodec.MetaField("enchants", ItemCodec.KIND_INT_MAP, enchants));
+    meta.add(new ItemCodec.MetaField("Damage", ItemCodec.KIND_INT, 12));
+    meta.add(new ItemCodec.MetaField("repair-cost", ItemCodec.KIND_INT, Integer.MIN_VALUE));
+    meta.add(new ItemCodec.MetaField("Unbreakable", ItemCodec.KIND_BOOLEAN, true));
+    meta.add(new ItemCodec.MetaField("ItemFlags", ItemCodec.KIND_YAML,
+        "value:\n- !!set\n  HIDE_ENCHANTS: null\n"));
+    return meta;
+  }
+
+  private static ItemCodec.RawItems sampleItems() {
+    List<ItemCodec.RawItem> items = new ArrayList<>();
+    items.add(new ItemCodec.RawItem("STONE", 64, null));
+    items.add(null);
+    items.add(new ItemCodec.RawItem("STONE", 64, null));
+    items.add(new ItemCodec.RawItem("DIAMOND_SWORD", 1, swordMeta()));
+    items.add(new ItemCodec.RawItem("DIAMOND_SWORD", 1, swordMeta()));
+    items.add(new ItemCodec.RawItem("GRASS", 3, null));
+    return new ItemCodec.RawItems(DATA_VERSION, items);
+  }
+
+  private static void assertSameItems(ItemCodec.RawItems expected, ItemCodec.RawItems actual) {
+    assertEquals(expected.dataVersion, actual.dataVersion);
+    assertEquals(expected.items.size(), actual.items.size());
+    for (int i = 0; i < expected.items.size(); i++) {
+      ItemCodec.RawItem expectedItem = expected.items.get(i);
+      ItemCodec.RawItem actualItem = actual.items.get(i);
+      if (expectedItem == null) {
+        assertNull(actualItem);
+        continue;
+      }
+      assertEquals(expectedItem.type, actualItem.type);
+      assertEquals(expectedItem.amount, actualItem.amount);
+      if (expectedItem.meta == null) {
+        assertNull(actualItem.meta);
+        continue;
+      }
+      assertEquals(expectedItem.meta.size(), actualItem.meta.size());
+      for (int j = 0; j < expectedItem.meta.size(); j++) {
+        ItemCodec.MetaField expectedField = expectedItem.meta.get(j);
+        ItemCodec.MetaField actualField = actualItem.meta.get(j);
+        assertEquals(expectedField.key, actualField.key);
+        assertEquals(expectedField.kind, actualField.kind);
+        assertEquals(expectedField.value, actualField.value);
+      }
+    }
+  }
+
+  private static void assertMalformed(byte[] data) {
+    assertMalformed(data, null);
+  }
+
+  private static void assertMalformed(byte[] data, ItemCodec.Dictionary dictionary) {
+    try {
+      ItemCodec.decodeRaw(data, dictionary);
+      fail("Malformed data was decoded");
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void roundTrip() throws IOException {
+    ItemCodec.RawItems items = sampleItems();
+    assertSameItems(items, ItemCodec.decodeRaw(ItemCodec.encode(items, false)));
+  }
+
+  @Test
+  public void roundTripCompressed() throws IOException {
+    ItemCodec.RawItems items = sampleItems();
+    assertSameItems(items, ItemCodec.decodeRaw(ItemCodec.encode(items, true)));
+  }
+
+  @Test
+  public void roundTripEmpty() throws IOException {
+    ItemCodec.RawItems items = new ItemCodec.RawItems(DATA_VERSION, new ArrayList<>());
+    assertSameItems(items, ItemCodec.decodeRaw(ItemCodec.encode(items, false)));
+  }
+
+  @Test
+  public void startsWithMagicByte() {
+    for (boolean compress : new boolean[] {false, true}) {
+      byte[] data = ItemCodec.encode(sampleItems(), compress);
+      assertEquals(ItemCodec.MAGIC, data[0] & 0xFF);
+    }
+  }
+
+  @Test
+  public void repeatedStringsAreStoredOnce() {
+    int oneSize = encodedSwords(1).length;
+    int twoSize = encodedSwords(2).length;
+    // Each further item only adds varints, no strings: 3 for the item, 2 for
+    // key and kind of each of its 8 fields and 18 for the values.
+    assertEquals(3 + 8 * 2 + 18, twoSize - oneSize);
+    assertEquals(oneSize + 9 * (twoSize - oneSize), encodedSwords(10).length);
+  }
+
+  private static byte[] encodedSwords(int count) {
+    List<ItemCodec.RawItem> items = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      items.add(new ItemCodec.RawItem("DIAMOND_SWORD", 1, swordMeta()));
+    }
+    return ItemCodec.encode(new ItemCodec.RawItems(DATA_VERSION, items), false);
+  }
+
+  @Test
+  public void roundTripSharedDictionary() throws IOException {
+    ItemCodec.Dictionary dictionary = new ItemCodec.Dictionary();
+    ItemCodec.RawItems first = sampleItems();
+    ItemCodec.RawItems second = new ItemCodec.RawItems(DATA_VERSION,
+        Collections.singletonList(new ItemCodec.RawItem("BREAD", 5, null)));
+    byte[] firstData = ItemCodec.encode(first, false, dictionary);
+    byte[] secondData = ItemCodec.encode(second, true, dictionary);
+
+    ItemCodec.Dictionary decoded = ItemCodec.Dictionary.decode(dictionary.encode(true));
+    assertEquals(dictionary.size(), decoded.size());
+    assertSameItems(first, ItemCodec.decodeRaw(firstData, decoded));
+    assertSameItems(second, ItemCodec.decodeRaw(secondData, decoded));
+  }
+
+  @Test
+  public void sharedDictionaryStoresStringsOnce() {
+    ItemCodec.Dictionary dictionary = new ItemCodec.Dictionary();
+    byte[] first = ItemCodec.encode(sampleItems(), false, dictionary);
+    int size = dictionary.size();
+    byte[] second = ItemCodec.encode(sampleItems(), false, dictionary);
+    assertEquals(size, dictionary.size());
+    assertArrayEquals(first, second);
+    assertTrue(first.length < ItemCodec.encode(sampleItems(), false).length);
+  }
+
+  @Test
+  public void rejectsMissingSharedDictionary() {
+    assertMalformed(ItemCodec.encode(sampleItems(), false, new ItemCodec.Dictionary()));
+  }
+
+  @Test
+  public void rejectsSharedDictionaryWhichIsTooSmall() {
+    ItemCodec.Dictionary dictionary = new ItemCodec.Dictionary();
+    byte[] data = ItemCodec.encode(sampleItems(), false, dictionary);
+    assertMalformed(data, new ItemCodec.Dictionary());
+  }
+
+  @Test
+  public void rejectsDictionaryAsItems() {
+    assertMalformed(new ItemCodec.Dictionary().encode(false));
+  }
+
+  @Test(expected = IOException.class)
+  public void rejectsItemsAsDictionary() throws IOException {
+    ItemCodec.Dictionary.decode(ItemCodec.encode(sampleItems(), false));
+  }
+
+  @Test
+  public void rejectsUnknownMetaFieldKind() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(ItemCodec.MAGIC);
+    out.write(0);
+    ItemCodec.writeVarInt(out, DATA_VERSION);
+    // Dictionary with one entry, one item with one field of kind 99.
+    ItemCodec.writeVarInt(out, 1);
+    ItemCodec.writeVarInt(out, 5);
+    out.write("STONE".getBytes(StandardCharsets.UTF_8));
+    ItemCodec.writeVarInt(out, 1);
+    ItemCodec.writeVarInt(out, 1);
+    ItemCodec.writeVarInt(out, 1);
+    ItemCodec.writeVarInt(out, 1);
+    ItemCodec.writeVarInt(out, 0);
+    ItemCodec.writeVarInt(out, 99);
+    ItemCodec.writeVarInt(out, 0);
+    assertMalformed(out.toByteArray());
+  }
+
+  @Test
+  public void varIntRoundTrip() throws IOException {
+    int[] values = {0, 1, 127, 128, 255, 300, 16383, 16384, 2097151, 2097152,
+        Integer.MAX_VALUE, -1, Integer.MIN_VALUE};
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (int value : values) {
+      ItemCodec.writeVarInt(out, value);
+    }
+    ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+    for (int value : values) {
+      assertEquals(value, ItemCodec.readVarInt(in));
+    }
+    assertEquals(-1, in.read());
+  }
+
+  @Test
+  public void varIntLength() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ItemCodec.writeVarInt(out, 127);
+    assertArrayEquals(new byte[] {0x7F}, out.toByteArray());
+    out.reset();
+    ItemCodec.writeVarInt(out, 300);
+    assertArrayEquals(new byte[] {(byte) 0xAC, 0x02}, out.toByteArray());
+  }
+
+  @Test(expected = EOFException.class)
+  public void truncatedVarInt() throws IOException {
+    ItemCodec.readVarInt(new ByteArrayInputStream(new byte[] {(byte) 0x80}));
+  }
+
+  @Test
+  public void overlongVarInt() {
+    byte[] data = new byte[6];
+    Arrays.fill(data, (byte) 0x80);
+    try {
+      ItemCodec.readVarInt(new ByteArrayInputStream(data));
+      fail("Overlong varint was read");
+    } catch (IOException e) {
+      assertTrue(!(e instanceof EOFException));
+    }
+  }
+
+  @Test
+  public void rejectsWrongMagicByte() {
+    byte[] data = ItemCodec.encode(sampleItems(), false);
+    data[0] = 'i';
+    assertMalformed(data);
+  }
+
+  @Test
+  public void rejectsTooShortData() {
+    assertMalformed(new byte[0]);
+    assertMalformed(new byte[] {(byte) ItemCodec.MAGIC});
+  }
+
+  @Test
+  public void rejectsTruncatedData() {
+    for (boolean compress : new boolean[] {false, true}) {
+      byte[] data = ItemCodec.encode(sampleItems(), compress);
+      for (int length = 2; length < data.length; length++) {
+        assertMalformed(Arrays.copyOf(data, length));
+      }
+    }
+  }
+
+  @Test
+  public void rejectsHugeLengths() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(ItemCodec.MAGIC);
+    out.write(0);
+    ItemCodec.writeVarInt(out, DATA_VERSION);
+    // Dictionary size far above the limit.
+    ItemCodec.writeVarInt(out, Integer.MAX_VALUE);
+    assertMalformed(out.toByteArray());
+  }
+
+  @Test
+  public void rejectsDictionaryIndexOutOfRange() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(ItemCodec.MAGIC);
+    out.write(0);
+    ItemCodec.writeVarInt(out, DATA_VERSION);
+    // Empty dictionary, one item referring to entry 0.
+    ItemCodec.writeVarInt(out, 0);
+    ItemCodec.writeVarInt(out, 1);
+    ItemCodec.writeVarInt(out, 1);
+    ItemCodec.writeVarInt(out, 1);
+    ItemCodec.writeVarInt(out, 0);
+    assertMalformed(out.toByteArray());
+  }
+
+  @Test
+  public void rejectsUncompressedDataFlaggedAsCompressed() {
+    byte[] data = ItemCodec.encode(sampleItems(), false);
+    data[1] = 1;
+    assertMalformed(data);
+  }
+}
@@ -0,0 +1,72 @@
+package com.tallcraft.deathbarrel;
+
+import static org.junit.Assert.assertEquals;
+
+import org.bukkit.Location;
+import org.junit.Test;
+
+/**
+ * Tests of message parsing and rendering.
+ */
+public class MessageTemplateTest {
+  private static MessageContext context() {
+    return new MessageContext()
+        .player("Steve")
+        .location(new Location(null, 10, -5, 300))
+        .items(42)
+        .expires("1h 30m");
+  }
+
+  private static String render(String raw, MessageTemplate.Placeholder... positional) {
+    return MessageTemplate.compile(raw, positional).render(context());
+  }
+
+  @Test
+  public void namedPlaceholders() {
+    assertEquals("Steve died at [10, -5, 300] with 42 items, expires in 1h 30m",
+        render("{player} died at [{x}, {y}, {z}] with {items} items, expires in {expires}"));
+  }
+
+  @Test
+  public void legacyPositionalPlaceholders() {
+    // Default death location message of older versions.
+    assertEquals("You died at [10, -5, 300]", render("You died at [{0}, {1}, {2}]",
+        MessageTemplate.Placeholder.X, MessageTemplate.Placeholder.Y,
+        MessageTemplate.Placeholder.Z));
+    assertEquals("[300, 10] [300]", render("[{1}, {0}] [{1}]",
+        MessageTemplate.Placeholder.X, MessageTemplate.Placeholder.Z));
+  }
+
+  @Test
+  public void unknownPlaceholdersAreKept() {
+    assertEquals("{3} {10} {unknown} {} {x", render("{3} {10} {unknown} {} {x",
+        MessageTemplate.Placeholder.X));
+    assertEquals("{10}", render("{{x}}", MessageTemplate.Placeholder.X));
+  }
+
+  @Test
+  public void missingValuesAreEmpty() {
+    MessageTemplate template = MessageTemplate.compile("[{player}] in [{world}]");
+    assertEquals("[] in []", template.render(new MessageContext()));
+  }
+
+  @Test
+  public void plainMessage() {
+    assertEquals("Created death barrel.", render("Created death barrel."));
+    assertEquals("", render(""));
+  }
+
+  @Test
+  public void nullMessage() {
+    assertEquals("Invalid message: null", render(null));
+  }
+
+  @Test
+  public void renderedTwice() {
+    MessageTemplate template = MessageTemplate.compile("{player}: {items}");
+    String first = template.render(context());
+    String second = template.render(new MessageContext().player("Alex").items(1));
+    assertEquals("Steve: 42", first);
+    assertEquals("Alex: 1", second);
+  }
+}
@@ -0,0 +1,119 @@
+package com.tallcraft.deathbarrel;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.block.Barrel;
+import org.bukkit.block.Block;
+import org.bukkit.event.entity.PlayerDeathEvent;
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * The plugin enabled on the stub server, with one world and one player. Used
+ * by the benchmarks and the soak harness.
+ */
+final class PluginFixture implements AutoCloseable {
+  // Item types dropped on death, in order.
+  private static final Material[] DROP_TYPES = {Material.STONE, Material.DIRT,
+      Material.OAK_LOG, Material.IRON_INGOT, Material.DIAMOND_SWORD, Material.BREAD,
+      Material.TORCH, Material.COBBLESTONE};
+
+  final FakeServer server;
+  final FakeWorld world;
+  final FakePlayer player;
+  final DeathBarrel plugin;
+  private final File pluginsFolder;
+
+  /**
+   * Enable the plugin. The death journal and the scan for unindexed barrels
+   * are off unless enabled in the config, they run in the background.
+   *
+   * @param config - Config entries to set, the rest keep their default.
+   * @throws IOException If the plugin folder could not be created.
+   */
+  PluginFixture(Map<String, Object> config) throws IOException {
+    server = FakeServer.get();
+    server.reset();
+    pluginsFolder = Files.createTempDirectory("deathbarrel").toFile();
+    world = server.addWorld("world");
+    player = server.addPlayer("Player", world.getWorld().getSpawnLocation());
+
+    Map<String, Object> fullConfig = new HashMap<>();
+    fullConfig.put("journalEnabled", false);
+    fullConfig.put("scanChunksForUnindexedBarrels", false);
+    fullConfig.putAll(config);
+    plugin = server.enable(pluginsFolder, fullConfig);
+  }
+
+  /**
+   * Create a list of drops.
+   *
+   * @param count - Number of item stacks.
+   * @return The drops.
+   */
+  static List<ItemStack> drops(int count) {
+    List<ItemStack> drops = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      Material type = DROP_TYPES[i % DROP_TYPES.length];
+      drops.add(new ItemStack(type, Math.min(1 + i, type.getMaxStackSize())));
+    }
+    return drops;
+  }
+
+  /**
+   * Let a player die. The plugin stores the drops it can, the rest are left
+   * in the list.
+   *
+   * @param player   - Player who dies.
+   * @param location - Where the player dies.
+   * @param drops    - Drops of the player.
+   */
+  void die(FakePlayer player, Location location, List<ItemStack> drops) {
+    player.setLocation(location);
+    plugin.onPlayerDeathEvent(new PlayerDeathEvent(player.getPlayer(), drops, 0, "died"));
+  }
+
+  /**
+   * Let the player die on the ground and return the death barrel created.
+   *
+   * @param x - Block x coordinate of the death location.
+   * @param z - Block z coordinate of the death location.
+   * @return The death barrel.
+   */
+  Barrel createDeathBarrel(int x, int z) {
+    die(player, new Location(world.getWorld(), x, FakeWorld.GROUND_Y, z), drops(5));
+    Block block = world.getBlock(x, FakeWorld.GROUND_Y, z);
+    if (block.getType() != Material.BARREL) {
+      throw new IllegalStateException("No death barrel created at " + x + ", " + z);
+    }
+    return (Barrel) block.getState();
+  }
+
+  /**
+   * Place an ordinary barrel.
+   *
+   * @param x - Block x coordinate.
+   * @param y - Block y coordinate.
+   * @param z - Block z coordinate.
+   * @return The barrel.
+   */
+  Barrel placeBarrel(int x, int y, int z) {
+    Block block = world.getBlock(x, y, z);
+    block.setType(Material.BARREL);
+    return (Barrel) block.getState();
+  }
+
+  @Override
+  public void close() throws IOException, InterruptedException {
+    server.disable(plugin);
+    server.reset();
+    FakeServer.delete(pluginsFolder);
+  }
+}
@@ -0,0 +1,428 @@
+package com.tallcraft.deathbarrel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Barrel;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.Hopper;
+import org.bukkit.entity.Entity;
+import org.bukkit.event.entity.EntityExplodeEvent;
+import org.bukkit.event.inventory.InventoryCloseEvent;
+import org.bukkit.event.inventory.InventoryMoveItemEvent;
+import org.bukkit.event.inventory.InventoryType;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * Headless soak test of the plugin on the stub server. Runs a scripted
+ * workload tick by tick: player deaths, chunk loads, hopper transfers,
+ * explosions and players emptying barrels, while the cleanup task removes
+ * expired barrels. Every report interval it prints percentiles of the time
+ * spent in the plugin per tick, the pending cleanups and tasks and the heap
+ * growth, and at the end the timings of every handler.
+ *
+ * <p>Run with {@code mvn -P soak test-compile exec:exec}, options are given
+ * as {@code name=value} pairs, e.g. {@code -Dsoak.args="ticks=6000 deaths=4"}.
+ * See {@link Options} for the names and defaults.
+ *
+ * <p>Expiry goes by wall clock time. Ticks are paced to 20 per second like on
+ * a server, unless {@code paced=false}, in which case fewer barrels expire
+ * during the run.
+ */
+public final class SoakHarness {
+  private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+  private static final int HOPPER_COUNT = 64;
+  private static final int ORDINARY_BARREL_COUNT = 256;
+  // Ordinary barrels are buried, so they don't get in the way of death barrels.
+  private static final int ORDINARY_BARREL_Y = FakeWorld.GROUND_Y - 20;
+  private static final int EXPLOSION_RADIUS = 2;
+  private static final int MAX_DROPS = 41;
+
+  private final Options options;
+  private final Random random;
+  private final PluginFixture fixture;
+  private final World world;
+  private final List<FakePlayer> players = new ArrayList<>();
+  private final List<Inventory> hoppers = new ArrayList<>();
+  private final List<Inventory> ordinaryBarrels = new ArrayList<>();
+  private final Entity tnt = Fakes.proxy(Entity.class);
+  private final ItemStack movedItem = new ItemStack(Material.COBBLESTONE);
+
+  // Nanoseconds per tick: all of it and the part spent in the plugin's
+  // instrumented handlers and tasks.
+  private final long[] tickNanos;
+  private final long[] pluginNanos;
+  private long deaths = 0;
+  private long explosions = 0;
+  private long baselineHeap;
+
+  private SoakHarness(Options options) throws Exception {
+    this.options = options;
+    this.random = new Random(options.seed);
+    this.tickNanos = new long[options.ticks];
+    this.pluginNanos = new long[options.ticks];
+
+    Map<String, Object> config = new HashMap<>();
+    config.put("removeBarrelsAfterSeconds", options.expirySeconds);
+    config.put("journalEnabled", options.journal);
+    config.put("deathQueueMaxTickMillis", options.deathQueueMillis);
+    fixture = new PluginFixture(config);
+    world = fixture.world.getWorld();
+
+    players.add(fixture.player);
+    for (int i = 1; i < options.players; i++) {
+      players.add(fixture.server.addPlayer("Player" + i, world.getSpawnLocation()));
+    }
+    for (int i = 0; i < HOPPER_COUNT; i++) {
+      Location location = randomLocation(FakeWorld.GROUND_Y - 10);
+      hoppers.add(FakeInventory.create(InventoryType.HOPPER, InventoryType.HOPPER.getDefaultSize(),
+          Fakes.proxy(Hopper.class), location));
+    }
+    for (int i = 0; i < ORDINARY_BARREL_COUNT; i++) {
+      Location location = randomLocation(ORDINARY_BARREL_Y);
+      ordinaryBarrels.add(fixture.placeBarrel(location.getBlockX(), location.getBlockY(),
+          location.getBlockZ()).getInventory());
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    Options options = Options.parse(args);
+    System.out.println("Soak test: " + options);
+    SoakHarness harness = new SoakHarness(options);
+    try {
+      harness.run();
+    } finally {
+      harness.fixture.close();
+    }
+  }
+
+  private void run() throws InterruptedException {
+    baselineHeap = usedHeap();
+    Stats stats = fixture.plugin.getStats();
+    long nextTick = System.nanoTime();
+
+    for (int tick = 0; tick < options.ticks; tick++) {
+      long pluginStart = totalPluginNanos(stats);
+      long start = System.nanoTime();
+      runWorkload(tick);
+      fixture.server.getScheduler().tick();
+      tickNanos[tick] = System.nanoTime() - start;
+      pluginNanos[tick] = totalPluginNanos(stats) - pluginStart;
+
+      if ((tick + 1) % options.reportInterval == 0 || tick + 1 == options.ticks) {
+        report(tick + 1);
+      }
+      if (options.paced) {
+        nextTick += TICK_NANOS;
+        long sleepNanos = nextTick - System.nanoTime();
+        if (sleepNanos > 0) {
+          TimeUnit.NANOSECONDS.sleep(sleepNanos);
+        }
+      }
+    }
+    // Let background saves finish before the summary.
+    fixture.server.getScheduler().awaitAsync();
+    summary();
+  }
+
+  /**
+   * Fire the events of one tick.
+   */
+  private void runWorkload(int tick) {
+    for (int i = randomCount(options.deathsPerTick); i > 0; i--) {
+      die();
+    }
+    for (int i = randomCount(options.chunkLoadsPerTick); i > 0; i--) {
+      loadChunk();
+    }
+    for (int i = randomCount(options.hopperMovesPerTick); i > 0; i--) {
+      moveItem();
+    }
+    for (int i = randomCount(options.emptiesPerTick); i > 0; i--) {
+      emptyBarrel();
+    }
+    if (options.explosionInterval > 0 && tick % options.explosionInterval == 0) {
+      explode();
+    }
+  }
+
+  /**
+   * Round a rate to a count, keeping the fraction as a chance for one more.
+   */
+  private int randomCount(double rate) {
+    int count = (int) rate;
+    return random.nextDouble() < rate - count ? count + 1 : count;
+  }
+
+  private Location randomLocation(int y) {
+    int x = random.nextInt(2 * options.area + 1) - options.area;
+    int z = random.nextInt(2 * options.area + 1) - options.area;
+    return new Location(world, x, y, z);
+  }
+
+  private void die() {
+    FakePlayer player = players.get(random.nextInt(players.size()));
+    List<ItemStack> drops = PluginFixture.drops(1 + random.nextInt(MAX_DROPS));
+    fixture.die(player, randomLocation(FakeWorld.GROUND_Y), drops);
+    deaths++;
+  }
+
+  private void loadChunk() {
+    Location location = randomLocation(FakeWorld.GROUND_Y);
+    // Some chunks are generated for the first time.
+    boolean newChunk = random.nextInt(10) == 0;
+    fixture.plugin.onChunkLoad(new ChunkLoadEvent(world.getChunkAt(location), newChunk));
+  }
+
+  /**
+   * Move an item between hoppers, into an ordinary barrel or into a random
+   * barrel of the world, which is most likely a death barrel.
+   */
+  private void moveItem() {
+    Inventory source = hoppers.get(random.nextInt(hoppers.size()));
+    Inventory destination;
+    int kind = random.nextInt(10);
+    if (kind < 7) {
+      destination = hoppers.get(random.nextInt(hoppers.size()));
+    } else if (kind < 9) {
+      destination = ordinaryBarrels.get(random.nextInt(ordinaryBarrels.size()));
+    } else {
+      Barrel barrel = randomBarrel();
+      destination = barrel != null ? barrel.getInventory() : source;
+    }
+    fixture.plugin.onInventoryMoveItem(new InventoryMoveItemEvent(source, movedItem, destination,
+        true));
+  }
+
+  /**
+   * Take everything out of a random barrel and close it.
+   */
+  private void emptyBarrel() {
+    Barrel barrel = randomBarrel();
+    if (barrel == null) {
+      return;
+    }
+    FakePlayer player = players.get(random.nextInt(players.size()));
+    barrel.getInventory().clear();
+    fixture.plugin.onInventoryClose(new InventoryCloseEvent(player.view(barrel.getInventory())));
+  }
+
+  /**
+   * Blow up a cube of blocks around a random barrel. Blocks left in the
+   * explosion's block list are destroyed.
+   */
+  private void explode() {
+    Barrel barrel = randomBarrel();
+    Location center = barrel != null ? barrel.getLocation() : randomLocation(FakeWorld.GROUND_Y);
+    List<Block> blocks = new ArrayList<>();
+    for (int dx = -EXPLOSION_RADIUS; dx <= EXPLOSION_RADIUS; dx++) {
+      for (int dy = -EXPLOSION_RADIUS; dy <= EXPLOSION_RADIUS; dy++) {
+        for (int dz = -EXPLOSION_RADIUS; dz <= EXPLOSION_RADIUS; dz++) {
+          blocks.add(world.getBlockAt(center.getBlockX() + dx, center.getBlockY() + dy,
+              center.getBlockZ() + dz));
+        }
+      }
+    }
+    EntityExplodeEvent event = new EntityExplodeEvent(tnt, center, blocks, 1);
+    fixture.plugin.onExplode(event);
+    for (Block block : event.blockList()) {
+      block.setType(Material.AIR);
+    }
+    explosions++;
+  }
+
+  private Barrel randomBarrel() {
+    Block block = fixture.world.getRandomBarrel(random);
+    if (block == null) {
+      return null;
+    }
+    BlockState state = block.getState();
+    return state instanceof Barrel ? (Barrel) state : null;
+  }
+
+  private static long totalPluginNanos(Stats stats) {
+    long total = 0;
+    for (Stats.Handler handler : Stats.Handler.values()) {
+      total += stats.getTimer(handler).getTotalNanos();
+    }
+    return total;
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    System.gc();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  /**
+   * Print a line for the ticks since the last report.
+   *
+   * @param ticks - Number of ticks run so far.
+   */
+  private void report(int ticks) {
+    int from = Math.max(0, ticks - options.reportInterval);
+    long[] plugin = Arrays.copyOfRange(pluginNanos, from, ticks);
+    long[] total = Arrays.copyOfRange(tickNanos, from, ticks);
+    Arrays.sort(plugin);
+    Arrays.sort(total);
+    long heap = usedHeap();
+
+    System.out.printf(Locale.ROOT, "tick %6d | plugin ms/tick p50 %.3f p95 %.3f p99 %.3f max %.3f"
+            + " | tick p99 %.3f | barrels %d indexed %d | pending cleanups %d tasks %d"
+            + " | heap %.1f MB (%+.1f)%n",
+        ticks, millis(percentile(plugin, 50)), millis(percentile(plugin, 95)),
+        millis(percentile(plugin, 99)), millis(plugin[plugin.length - 1]),
+        millis(percentile(total, 99)), fixture.world.getBarrelCount(),
+        fixture.plugin.getBarrelIndex().size(), fixture.plugin.getCleanupTask().getPendingCount(),
+        fixture.server.getScheduler().getPendingCount(), megabytes(heap),
+        megabytes(heap - baselineHeap));
+  }
+
+  /**
+   * Print the timings of every handler and the totals of the run.
+   */
+  private void summary() {
+    long[] plugin = pluginNanos.clone();
+    Arrays.sort(plugin);
+    System.out.printf(Locale.ROOT, "%nWhole run, plugin ms/tick: p50 %.3f p95 %.3f p99 %.3f"
+            + " p99.9 %.3f max %.3f%n",
+        millis(percentile(plugin, 50)), millis(percentile(plugin, 95)),
+        millis(percentile(plugin, 99)), millis(percentile(plugin, 99.9)),
+        millis(plugin[plugin.length - 1]));
+
+    Stats stats = fixture.plugin.getStats();
+    System.out.printf(Locale.ROOT, "%nPer call, over the last 1024 calls:%n%-32s %10s %10s %10s"
+        + " %10s%n", "handler", "calls", "mean us", "p50 us", "p99 us");
+    for (Stats.Handler handler : Stats.Handler.values()) {
+      Stats.Timer timer = stats.getTimer(handler);
+      long count = timer.getCount();
+      if (count == 0) {
+        continue;
+      }
+      System.out.printf(Locale.ROOT, "%-32s %10d %10.2f %10.2f %10.2f%n",
+          handler.getDisplayName(), count, timer.getTotalNanos() / 1000.0 / count,
+          timer.getPercentileNanos(50) / 1000.0, timer.getPercentileNanos(99) / 1000.0);
+    }
+
+    long messages = 0;
+    for (FakePlayer player : players) {
+      messages += player.getMessageCount();
+    }
+    System.out.printf(Locale.ROOT, "%nDeaths %d, explosions %d, messages %d, items dropped %d%n",
+        deaths, explosions, messages, fixture.world.getDroppedItems());
+    System.out.printf(Locale.ROOT, "Barrels created %d, expired %d, emptied %d, still indexed %d%n",
+        stats.barrelsCreated.get(), stats.barrelsExpired.get(), stats.barrelsEmptied.get(),
+        fixture.plugin.getBarrelIndex().size());
+  }
+
+  /**
+   * Get a percentile of sorted values, computed like {@link Stats.Timer}.
+   */
+  private static long percentile(long[] sorted, double percentile) {
+    int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+    return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+  }
+
+  private static double millis(long nanos) {
+    return nanos / 1_000_000.0;
+  }
+
+  private static double megabytes(long bytes) {
+    return bytes / (1024.0 * 1024.0);
+  }
+
+  /**
+   * Workload settings.
+   */
+  private static final class Options {
+    int ticks = 2400;
+    int players = 50;
+    // Events per tick. Fractions are the chance of one more event.
+    double deathsPerTick = 2;
+    double chunkLoadsPerTick = 20;
+    double hopperMovesPerTick = 500;
+    double emptiesPerTick = 0.5;
+    // Ticks between explosions, 0 disables them.
+    int explosionInterval = 20;
+    // Deaths and chunk loads happen within this many blocks of the spawn.
+    int area = 256;
+    long expirySeconds = 30;
+    double deathQueueMillis = 0;
+    boolean journal = false;
+    boolean paced = true;
+    int reportInterval = 200;
+    long seed = 1;
+
+    static Options parse(String[] args) {
+      Map<String, String> values = new LinkedHashMap<>();
+      for (String arg : args) {
+        int separator = arg.indexOf('=');
+        if (separator < 0) {
+          throw new IllegalArgumentException("Expected name=value, got " + arg);
+        }
+        values.put(arg.substring(0, separator), arg.substring(separator + 1));
+      }
+
+      Options options = new Options();
+      options.ticks = Integer.parseInt(values.getOrDefault("ticks", "" + options.ticks));
+      options.players = Integer.parseInt(values.getOrDefault("players", "" + options.players));
+      options.deathsPerTick = Double.parseDouble(
+          values.getOrDefault("deaths", "" + options.deathsPerTick));
+      options.chunkLoadsPerTick = Double.parseDouble(
+          values.getOrDefault("chunkLoads", "" + options.chunkLoadsPerTick));
+      options.hopperMovesPerTick = Double.parseDouble(
+          values.getOrDefault("hopperMoves", "" + options.hopperMovesPerTick));
+      options.emptiesPerTick = Double.parseDouble(
+          values.getOrDefault("empties", "" + options.emptiesPerTick));
+      options.explosionInterval = Integer.parseInt(
+          values.getOrDefault("explosionInterval", "" + options.explosionInterval));
+      options.area = Integer.parseInt(values.getOrDefault("area", "" + options.area));
+      options.expirySeconds = Long.parseLong(
+          values.getOrDefault("expirySeconds", "" + options.expirySeconds));
+      options.deathQueueMillis = Double.parseDouble(
+          values.getOrDefault("deathQueueMillis", "" + options.deathQueueMillis));
+      options.journal = Boolean.parseBoolean(
+          values.getOrDefault("journal", "" + options.journal));
+      options.paced = Boolean.parseBoolean(values.getOrDefault("paced", "" + options.paced));
+      options.reportInterval = Integer.parseInt(
+          values.getOrDefault("reportInterval", "" + options.reportInterval));
+      options.seed = Long.parseLong(values.getOrDefault("seed", "" + options.seed));
+
+      values.keySet().removeAll(Arrays.asList("ticks", "players", "deaths", "chunkLoads",
+          "hopperMoves", "empties", "explosionInterval", "area", "expirySeconds",
+          "deathQueueMillis", "journal", "paced", "reportInterval", "seed"));
+      if (!values.isEmpty()) {
+        throw new IllegalArgumentException("Unknown options " + values.keySet());
+      }
+      if (options.ticks < 1 || options.players < 1 || options.reportInterval < 1
+          || options.area < 0) {
+        throw new IllegalArgumentException(
+            "ticks, players and reportInterval must be positive, area not negative");
+      }
+      return options;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.ROOT, "ticks=%d players=%d deaths=%s chunkLoads=%s"
+              + " hopperMoves=%s empties=%s explosionInterval=%d area=%d expirySeconds=%d"
+              + " deathQueueMillis=%s journal=%b paced=%b reportInterval=%d seed=%d",
+          ticks, players, deathsPerTick, chunkLoadsPerTick, hopperMovesPerTick, emptiesPerTick,
+          explosionInterval, area, expirySeconds, deathQueueMillis, journal, paced,
+          reportInterval, seed);
+    }
+  }
+}
@@ -0,0 +1,92 @@
+package com.tallcraft.deathbarrel;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.ItemMeta;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests of the helpers in {@link Util}. Stacks are merged on the stub server,
+ * which compares item meta.
+ */
+public class UtilTest {
+  @BeforeClass
+  public static void setUpServer() {
+    FakeServer.get();
+  }
+
+  private static List<ItemStack> merge(ItemStack... items) {
+    List<ItemStack> list = new ArrayList<>(Arrays.asList(items));
+    Util.mergeSimilarStacks(list);
+    return list;
+  }
+
+  @Test
+  public void mergePartialStacks() {
+    assertEquals(Arrays.asList(new ItemStack(Material.STONE, 64),
+        new ItemStack(Material.DIRT, 5), new ItemStack(Material.STONE, 16)),
+        merge(new ItemStack(Material.STONE, 30), new ItemStack(Material.DIRT, 5),
+            new ItemStack(Material.STONE, 40), new ItemStack(Material.STONE, 10)));
+  }
+
+  @Test
+  public void mergeKeepsFullStacksAndRemovesEmptyEntries() {
+    assertEquals(Arrays.asList(new ItemStack(Material.STONE, 64),
+        new ItemStack(Material.STONE, 3)),
+        merge(new ItemStack(Material.STONE, 64), null, new ItemStack(Material.STONE, 1),
+            new ItemStack(Material.STONE, 0), new ItemStack(Material.STONE, 2)));
+  }
+
+  @Test
+  public void mergeOnlySimilarStacks() {
+    ItemStack named = new ItemStack(Material.STONE, 10);
+    ItemMeta meta = named.getItemMeta();
+    meta.setDisplayName("Named stone");
+    named.setItemMeta(meta);
+    assertEquals(Arrays.asList(new ItemStack(Material.STONE, 20), named.clone()),
+        merge(new ItemStack(Material.STONE, 10), named, new ItemStack(Material.STONE, 10)));
+  }
+
+  @Test
+  public void mergeRespectsMaxStackSize() {
+    // Swords don't stack.
+    ItemStack sword = new ItemStack(Material.DIAMOND_SWORD);
+    assertEquals(Arrays.asList(sword, sword), merge(sword.clone(), sword.clone()));
+    // Ender pearls stack to 16.
+    assertEquals(Arrays.asList(new ItemStack(Material.ENDER_PEARL, 16),
+        new ItemStack(Material.ENDER_PEARL, 4)),
+        merge(new ItemStack(Material.ENDER_PEARL, 10), new ItemStack(Material.ENDER_PEARL, 10)));
+  }
+
+  @Test
+  public void parseDuration() {
+    assertEquals(90, Util.parseDuration("90"));
+    assertEquals(15, Util.parseDuration("15s"));
+    assertEquals(1800, Util.parseDuration("30m"));
+    assertEquals(7200, Util.parseDuration("2H"));
+    assertEquals(604800, Util.parseDuration("7d"));
+    assertEquals(0, Util.parseDuration("0d"));
+  }
+
+  @Test
+  public void parseInvalidDuration() {
+    for (String text : new String[] {"", "m", "-5", "-5m", "abc", "5x", "1.5h", " 5m"}) {
+      assertEquals(text, -1, Util.parseDuration(text));
+    }
+  }
+
+  @Test
+  public void formatDuration() {
+    assertEquals("0s", Util.formatDuration(0));
+    assertEquals("45s", Util.formatDuration(45));
+    assertEquals("1h 30m", Util.formatDuration(5400));
+    assertEquals("2h 1s", Util.formatDuration(7201));
+  }
+}